@@ -0,0 +1,85 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.ContainerInstanceStatus;
+import com.amazonaws.services.ecs.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capacity check of a launch against a cluster snapshot: only the last container instance has room for the
+ * template, so every check scans the whole cluster and the reservations of the launches in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ECSClusterCapacityBenchmark {
+
+    private static final String CLUSTER_ARN = "arn:aws:ecs:us-east-1:123456789012:cluster/benchmark";
+
+    @Param({"100", "1000", "5000"})
+    private int containerInstanceCount;
+
+    @Param({"0", "200"})
+    private int reservationCount;
+
+    private ECSClusterCapacity capacity;
+    private List<ContainerInstance> containerInstances;
+    private ECSTaskTemplate template;
+
+    @Setup
+    public void setUp() {
+        capacity = new ECSClusterCapacity(new ECSService(null, "us-east-1", null), CLUSTER_ARN);
+        containerInstances = new ArrayList<>(containerInstanceCount);
+        for (int i = 0; i < containerInstanceCount; i++) {
+            final int memory = i == containerInstanceCount - 1 ? 8192 : 256;
+            containerInstances.add(new ContainerInstance()
+                    .withContainerInstanceArn(CLUSTER_ARN.replace(":cluster/", ":container-instance/") + '/' + i)
+                    .withStatus(ContainerInstanceStatus.ACTIVE.toString())
+                    .withRemainingResources(
+                            new Resource().withName("MEMORY").withType("INTEGER").withIntegerValue(memory),
+                            new Resource().withName("CPU").withType("INTEGER").withIntegerValue(2048)));
+        }
+        template = newTemplate(1024, 512);
+
+        // launches in flight, placed on the first instance
+        final ECSTaskTemplate small = newTemplate(1, 1);
+        synchronized (capacity) {
+            for (int i = 0; i < reservationCount; i++) {
+                capacity.reserve(small, containerInstances);
+            }
+        }
+    }
+
+    @Benchmark
+    public ECSClusterCapacity.Reservation reserve() {
+        final ECSClusterCapacity.Reservation reservation;
+        synchronized (capacity) {
+            reservation = capacity.reserve(template, containerInstances);
+        }
+        if (reservation != null) {
+            reservation.release();
+        }
+        return reservation;
+    }
+
+    private static ECSTaskTemplate newTemplate(int memory, int cpu) {
+        return new ECSTaskTemplate("benchmark", "benchmark", "jenkins/jnlp-slave", null, memory, 0, cpu, false, null, null, null, null);
+    }
+}
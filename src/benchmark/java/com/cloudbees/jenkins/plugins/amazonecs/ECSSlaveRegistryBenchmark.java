@@ -0,0 +1,98 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Slave lookups of provisioning and of the scale in, {@link ECSCloud#getECSSlaves()} and
+ * {@link ECSCloud#getSlaves()}, and of the slave listeners by node name and task ARN, answered by the slave registry. The slaves are added with node events; they are
+ * mocks, as creating nodes needs a running Jenkins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ECSSlaveRegistryBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int slaveCount;
+
+    @Param({"10"})
+    private int cloudCount;
+
+    private final List<ECSSlave> slaves = new ArrayList<>();
+    private final ECSSlaveRegistry.Listener listener = new ECSSlaveRegistry.Listener();
+    private ECSCloud cloud;
+
+    @Setup
+    public void setUp() {
+        final List<ECSCloud> clouds = new ArrayList<>(cloudCount);
+        for (int i = 0; i < cloudCount; i++) {
+            clouds.add(new ECSFargateCloud("benchmark-" + i, Collections.emptyList(), "", "benchmark", null, null, null,
+                    "us-east-1", "1024", "512", "http://jenkins.example.com/", 900));
+        }
+        for (int i = 0; i < slaveCount; i++) {
+            final ECSSlave slave = mock(ECSSlave.class);
+            when(slave.getNodeName()).thenReturn("benchmark-" + i);
+            when(slave.getTaskArn()).thenReturn("task-" + i);
+            when(slave.getCloud()).thenReturn(clouds.get(i % cloudCount));
+            slaves.add(slave);
+            listener.onCreated(slave);
+        }
+        cloud = clouds.get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        slaves.forEach(listener::onDeleted);
+        slaves.clear();
+    }
+
+    @Benchmark
+    public ECSSlave getSlave() {
+        return ECSSlaveRegistry.getSlave("benchmark-" + (slaveCount - 1));
+    }
+
+    @Benchmark
+    public ECSSlave getSlaveByTaskArn() {
+        return ECSSlaveRegistry.getSlaveByTaskArn("task-" + (slaveCount - 1));
+    }
+
+    @Benchmark
+    public List<ECSSlave> getECSSlaves() {
+        return ECSCloud.getECSSlaves();
+    }
+
+    @Benchmark
+    public int getSlavesOfCloud() {
+        final Collection<ECSSlave> slavesOfCloud = cloud.getSlaves();
+        int count = 0;
+        for (ECSSlave slave : slavesOfCloud) {
+            if (slave.getTaskArn() == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.RegisterTaskDefinitionRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per launch cost of {@link ECSService#registerTemplate}: building the task definition of a template and
+ * comparing it with the cached one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ECSTaskDefinitionBenchmark {
+
+    private static final String FAMILY = "benchmark-family";
+
+    @Param({"10", "100"})
+    private int environmentCount;
+
+    @Param({"10"})
+    private int mountPointCount;
+
+    private ECSService ecsService;
+    private ECSTaskTemplate template;
+    private RegisterTaskDefinitionRequest cached;
+
+    @Setup
+    public void setUp() {
+        final List<ECSTaskTemplate.EnvironmentEntry> environments = new ArrayList<>();
+        for (int i = 0; i < environmentCount; i++) {
+            environments.add(new ECSTaskTemplate.EnvironmentEntry("VARIABLE_" + i, "value-" + i));
+        }
+        final List<ECSTaskTemplate.MountPointEntry> mountPoints = new ArrayList<>();
+        for (int i = 0; i < mountPointCount; i++) {
+            mountPoints.add(new ECSTaskTemplate.MountPointEntry("volume-" + i, "/host/" + i, "/container/" + i, false));
+        }
+        template = new ECSTaskTemplate("benchmark", "benchmark", "jenkins/jnlp-slave", null, 1024, 0, 512, false, null, environments, null, mountPoints);
+        ecsService = new ECSService(null, "us-east-1", null);
+        // an EC2 task definition, as the cloud is only needed for Fargate settings
+        cached = ecsService.createTaskDefinitionRequest(null, template, FAMILY);
+    }
+
+    @Benchmark
+    public RegisterTaskDefinitionRequest create() {
+        return ecsService.createTaskDefinitionRequest(null, template, FAMILY);
+    }
+
+    @Benchmark
+    public boolean createAndCompare() {
+        return cached.equals(ecsService.createTaskDefinitionRequest(null, template, FAMILY));
+    }
+}
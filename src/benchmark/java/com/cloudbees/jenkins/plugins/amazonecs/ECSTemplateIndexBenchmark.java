@@ -0,0 +1,72 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.model.labels.LabelAtom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Template lookup of {@link ECSCloud#getTemplate}: only the last template matches the label, so a lookup which
+ * is not remembered yet checks the labels of every template. The labels are built as atoms, as parsing them
+ * needs a running Jenkins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ECSTemplateIndexBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int templateCount;
+
+    @Param({"3"})
+    private int labelsPerTemplate;
+
+    private ECSTemplateIndex index;
+    private LabelAtom label;
+
+    @Setup
+    public void setUp() {
+        final List<ECSTaskTemplate> templates = new ArrayList<>(templateCount);
+        final List<Set<LabelAtom>> labelSets = new ArrayList<>(templateCount);
+        for (int i = 0; i < templateCount; i++) {
+            templates.add(new ECSTaskTemplate("benchmark-" + i, "benchmark-" + i, "jenkins/jnlp-slave", null, 1024, 0, 512, false, null, null, null, null));
+            final Set<LabelAtom> labelSet = new HashSet<>();
+            for (int j = 0; j < labelsPerTemplate; j++) {
+                labelSet.add(new LabelAtom("benchmark-" + i + "-" + j));
+            }
+            labelSets.add(labelSet);
+        }
+        index = new ECSTemplateIndex(templates, labelSets);
+        label = new LabelAtom("benchmark-" + (templateCount - 1) + "-0");
+        // remember the label for the cached lookup
+        index.getTemplate(label);
+    }
+
+    @Benchmark
+    public ECSTaskTemplate getTemplate() {
+        return index.getTemplate(label);
+    }
+
+    @Benchmark
+    public ECSTaskTemplate match() {
+        return index.match(label);
+    }
+}
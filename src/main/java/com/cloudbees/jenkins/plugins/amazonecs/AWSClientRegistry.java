@@ -0,0 +1,258 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsImpl;
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the AWS clients of one service.
+ *
+ * Clients are evicted when they have not been used for a while, when the registry exceeds its size (least
+ * recently used first) and when the credentials they were built with have been changed or removed: the credentials
+ * are compared by a fingerprint of their id and keys, as the credentials store may return new instances of
+ * unchanged credentials. Evicted
+ * clients are shut down after a grace period, so that requests still running on them can complete.
+ */
+class AWSClientRegistry<C> {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    private static final int MAX_CLIENTS = Integer.getInteger(AWSClientRegistry.class.getName() + ".maxClients", 32);
+
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(
+            Long.getLong(AWSClientRegistry.class.getName() + ".idleMinutes", 60));
+
+    /**
+     * How often the credentials of a client are looked up again to notice that they were changed.
+     */
+    private static final long CREDENTIALS_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long SHUTDOWN_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ScheduledExecutorService SHUTDOWN_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "AWSClientRegistry"));
+
+    private final String awsServiceName;
+    private final Consumer<C> shutdown;
+
+    /**
+     * Entries in access order, the least recently used first.
+     */
+    @GuardedBy("this")
+    private final LinkedHashMap<Key, Entry<C>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    AWSClientRegistry(String awsServiceName, Consumer<C> shutdown) {
+        this.awsServiceName = awsServiceName;
+        this.shutdown = shutdown;
+    }
+
+    /**
+     * @param credentials looks up the current credentials of a credentials id
+     * @param factory builds a client with the given credentials (null for the default credential chain) that
+     *                reports its connection pool usage to the given monitor
+     */
+    C get(Key key, Function<String, AmazonWebServicesCredentials> credentials,
+          BiFunction<AmazonWebServicesCredentials, ECSHttpClientPoolMonitor, C> factory) {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final Entry<C> entry = entries.get(key);
+            if (entry != null && now - entry.credentialsCheckedAt < CREDENTIALS_CHECK_MILLIS) {
+                entry.usedAt = now;
+                return entry.client;
+            }
+        }
+        // the credentials store is not looked up while holding the registry lock
+        final AmazonWebServicesCredentials current = credentials.apply(key.credentialsId);
+        final String fingerprint = getFingerprint(key.credentialsId, current);
+        synchronized (this) {
+            Entry<C> entry = entries.get(key);
+            if (entry != null && !entry.credentialsFingerprint.equals(fingerprint)) {
+                LOGGER.log(Level.INFO, "Credentials of Amazon {0} client {1} changed", new Object[] {awsServiceName, key});
+                evict(key);
+                entry = null;
+            }
+            if (entry == null) {
+                final ECSHttpClientPoolMonitor poolMonitor = new ECSHttpClientPoolMonitor();
+                entry = new Entry<>(factory.apply(current, poolMonitor), fingerprint, poolMonitor, now);
+                entries.put(key, entry);
+                while (entries.size() > MAX_CLIENTS) {
+                    evict(entries.keySet().iterator().next());
+                }
+            }
+            entry.credentialsCheckedAt = now;
+            entry.usedAt = now;
+            return entry.client;
+        }
+    }
+
+    /**
+     * Credentials assuming a role get new session keys on every call, so their configured keys and role are
+     * fingerprinted rather than the keys they provide.
+     *
+     * @return a digest of the id and keys of the given credentials, which does not reveal the secret key
+     */
+    static String getFingerprint(@CheckForNull String credentialsId, @CheckForNull AmazonWebServicesCredentials credentials) {
+        final StringBuilder fingerprinted = new StringBuilder(String.valueOf(credentialsId));
+        if (credentials instanceof AWSCredentialsImpl) {
+            final AWSCredentialsImpl impl = (AWSCredentialsImpl) credentials;
+            fingerprinted.append('\n').append(impl.getAccessKey())
+                    .append('\n').append(impl.getSecretKey() == null ? null : impl.getSecretKey().getPlainText())
+                    .append('\n').append(impl.getIamRoleArn())
+                    .append('\n').append(impl.getIamMfaSerialNumber());
+        } else if (credentials != null) {
+            final AWSCredentials keys = credentials.getCredentials();
+            fingerprinted.append('\n').append(keys.getAWSAccessKeyId())
+                    .append('\n').append(keys.getAWSSecretKey());
+        }
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(fingerprinted.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    @CheckForNull
+    synchronized ECSHttpClientPoolMonitor getPoolMonitor(Key key) {
+        final Entry<C> entry = entries.get(key);
+        return entry == null ? null : entry.poolMonitor;
+    }
+
+    /**
+     * Evicts the clients which have not been used for the idle time.
+     */
+    void evictIdle() {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Iterator<Map.Entry<Key, Entry<C>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<Key, Entry<C>> entry = it.next();
+                if (now - entry.getValue().usedAt >= IDLE_MILLIS) {
+                    LOGGER.log(Level.FINE, "Amazon {0} client {1} is idle", new Object[] {awsServiceName, entry.getKey()});
+                    it.remove();
+                    scheduleShutdown(entry.getKey(), entry.getValue().client, SHUTDOWN_GRACE_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shuts all clients down right away, e.g. because Jenkins is stopping.
+     */
+    void shutdownAll() {
+        final List<C> clients;
+        synchronized (this) {
+            clients = new ArrayList<>();
+            entries.values().forEach(entry -> clients.add(entry.client));
+            entries.clear();
+        }
+        clients.forEach(shutdown);
+    }
+
+    @GuardedBy("this")
+    private void evict(Key key) {
+        final Entry<C> entry = entries.remove(key);
+        if (entry != null) {
+            scheduleShutdown(key, entry.client, SHUTDOWN_GRACE_MILLIS);
+        }
+    }
+
+    private void scheduleShutdown(Key key, C client, long delayMillis) {
+        LOGGER.log(Level.INFO, "Shutting down Amazon {0} client {1}", new Object[] {awsServiceName, key});
+        SHUTDOWN_EXECUTOR.schedule(() -> {
+            try {
+                shutdown.accept(client);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to shut down Amazon " + awsServiceName + " client " + key, e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Identifies the clients of an account and region built with the same HTTP client settings.
+     */
+    static final class Key {
+        @CheckForNull
+        private final String credentialsId;
+        @CheckForNull
+        private final String regionName;
+        @CheckForNull
+        private final String httpClientSettings;
+
+        Key(@CheckForNull String credentialsId, @CheckForNull String regionName, @CheckForNull ECSHttpClientSettings httpClientSettings) {
+            this.credentialsId = credentialsId;
+            this.regionName = regionName;
+            this.httpClientSettings = httpClientSettings == null ? null : httpClientSettings.getKey();
+        }
+
+        /**
+         * @return the key of the account and region, regardless of the HTTP client settings
+         */
+        Key getAccountKey() {
+            return httpClientSettings == null ? this : new Key(credentialsId, regionName, null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(credentialsId, key.credentialsId)
+                    && Objects.equals(regionName, key.regionName)
+                    && Objects.equals(httpClientSettings, key.httpClientSettings);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialsId, regionName, httpClientSettings);
+        }
+
+        @Override
+        public String toString() {
+            return (credentialsId == null ? "default credentials" : credentialsId) + " in " + regionName
+                    + (httpClientSettings == null ? "" : " (" + httpClientSettings + ")");
+        }
+    }
+
+    private static class Entry<C> {
+        private final C client;
+        private final String credentialsFingerprint;
+        private final ECSHttpClientPoolMonitor poolMonitor;
+        private long credentialsCheckedAt;
+        private long usedAt;
+
+        Entry(C client, String credentialsFingerprint, ECSHttpClientPoolMonitor poolMonitor, long now) {
+            this.client = client;
+            this.credentialsFingerprint = credentialsFingerprint;
+            this.poolMonitor = poolMonitor;
+            this.credentialsCheckedAt = now;
+            this.usedAt = now;
+        }
+    }
+}
@@ -1,23 +1,39 @@
 package com.cloudbees.jenkins.plugins.amazonecs;
 
 import com.amazonaws.ClientConfiguration;
-import com.amazonaws.services.autoscaling.AmazonAutoScaling;
-import com.amazonaws.services.autoscaling.AmazonAutoScalingClientBuilder;
+import com.amazonaws.services.autoscaling.AmazonAutoScalingAsync;
+import com.amazonaws.services.autoscaling.AmazonAutoScalingAsyncClientBuilder;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
-import com.amazonaws.services.ecs.AmazonECS;
-import com.amazonaws.services.ecs.AmazonECSClientBuilder;
+import com.amazonaws.services.ecs.AmazonECSAsync;
+import com.amazonaws.services.ecs.AmazonECSAsyncClientBuilder;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import hudson.Extension;
 import hudson.ProxyConfiguration;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,14 +41,70 @@ class AWSClientsManager {
 
     private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
 
-    private static ConcurrentHashMap<String, ECSService> ecsServiceMap = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, AmazonIdentityManagement> iamClientsMap = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, AmazonECS> ecsClientsMap = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, AmazonAutoScaling> autoScalingClientsMap = new ConcurrentHashMap<>();
-    private static ConcurrentHashMap<String, AmazonEC2> ec2ClientsMap = new ConcurrentHashMap<>();
+    /**
+     * Number of threads of each asynchronous client, i.e. the maximum number of concurrent calls per client.
+     */
+    private static final int ASYNC_THREADS = Integer.getInteger(AWSClientsManager.class.getName() + ".asyncThreads", 10);
+
+    private static ConcurrentHashMap<AWSClientRegistry.Key, ECSService> ecsServiceMap = new ConcurrentHashMap<>();
+    private static AWSClientRegistry<AmazonIdentityManagement> iamClients = new AWSClientRegistry<>("IAM", AmazonIdentityManagement::shutdown);
+    private static AWSClientRegistry<AmazonECSAsync> ecsClients = new AWSClientRegistry<>("ECS", AmazonECSAsync::shutdown);
+    private static AWSClientRegistry<AmazonAutoScalingAsync> autoScalingClients = new AWSClientRegistry<>("AutoScaling", AmazonAutoScalingAsync::shutdown);
+    private static AWSClientRegistry<AmazonEC2> ec2Clients = new AWSClientRegistry<>("EC2", AmazonEC2::shutdown);
+    private static ConcurrentHashMap<AWSClientRegistry.Key, ECSRetryPolicy> retryPoliciesMap = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<AWSClientRegistry.Key, ECSRateLimiter> rateLimitersMap = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<AWSClientRegistry.Key, ECSApiMetrics> apiMetricsMap = new ConcurrentHashMap<>();
 
     static ECSService getEcsService(final String credentialsId, final String regionName){
-        return ecsServiceMap.computeIfAbsent(credentialsId+regionName, key -> new ECSService(credentialsId, regionName));
+        return getEcsService(credentialsId, regionName, null);
+    }
+
+    /**
+     * ECS services keep the provisioning state of their clouds and are evicted once no cloud is configured with
+     * their account, region and HTTP client settings; they look their clients up in the registries on every call.
+     */
+    static ECSService getEcsService(final String credentialsId, final String regionName, @CheckForNull final ECSHttpClientSettings httpClientSettings){
+        return ecsServiceMap.computeIfAbsent(new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings), key -> new ECSService(credentialsId, regionName, httpClientSettings));
+    }
+
+    /**
+     * Evicts the ECS services no configured cloud uses, e.g. because a cloud was deleted, its settings were changed
+     * or they were only used to fill a configuration form.
+     */
+    static void evictUnusedEcsServices() {
+        final Set<AWSClientRegistry.Key> used = new HashSet<>();
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof ECSCloud) {
+                used.add(((ECSCloud) cloud).getEcsServiceKey());
+            }
+        }
+        for (Iterator<Map.Entry<AWSClientRegistry.Key, ECSService>> it = ecsServiceMap.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<AWSClientRegistry.Key, ECSService> entry = it.next();
+            if (!used.contains(entry.getKey())) {
+                LOGGER.log(Level.FINE, "Evicting unused ECS service of {0}", entry.getKey());
+                it.remove();
+                entry.getValue().shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the connection pool usage of the clients built with the given settings, by AWS service
+     */
+    static Map<String, ECSHttpClientPoolMonitor> getHttpClientPools(final String credentialsId, final String regionName, @CheckForNull final ECSHttpClientSettings httpClientSettings) {
+        final AWSClientRegistry.Key key = new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings);
+        final Map<String, ECSHttpClientPoolMonitor> pools = new LinkedHashMap<>();
+        putHttpClientPool(pools, "ECS", ecsClients.getPoolMonitor(key));
+        putHttpClientPool(pools, "AutoScaling", autoScalingClients.getPoolMonitor(key));
+        putHttpClientPool(pools, "EC2", ec2Clients.getPoolMonitor(key));
+        putHttpClientPool(pools, "IAM", iamClients.getPoolMonitor(key));
+        return pools;
+    }
+
+    private static void putHttpClientPool(Map<String, ECSHttpClientPoolMonitor> pools, String awsServiceName, @CheckForNull ECSHttpClientPoolMonitor monitor) {
+        if (monitor != null) {
+            pools.put(awsServiceName, monitor);
+        }
     }
 
     //
@@ -40,114 +112,153 @@ class AWSClientsManager {
     //
 
     static AmazonIdentityManagement getAmazonIAMClient(final String credentialsId, final String regionName) {
-        return iamClientsMap.computeIfAbsent(credentialsId+regionName, key -> {
-            final AmazonIdentityManagement client;
-
-            final ClientConfiguration clientConfiguration = getClientConfiguration();
-            final AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials == null) {
-                // no credentials provided, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
-                // to use IAM Role define at the EC2 instance level ...
-                //client = new AmazonIdentityManagementClient(clientConfiguration);
-                client = AmazonIdentityManagementClientBuilder.standard()
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
-            } else {
+        return getAmazonIAMClient(credentialsId, regionName, null);
+    }
+
+    static AmazonIdentityManagement getAmazonIAMClient(final String credentialsId, final String regionName, @CheckForNull final ECSHttpClientSettings httpClientSettings) {
+        final AWSClientRegistry.Key key = new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings);
+        return iamClients.get(key, AWSClientsManager::getCredentials, (credentials, poolMonitor) -> {
+            final AmazonIdentityManagementClientBuilder builder = AmazonIdentityManagementClientBuilder.standard();
+            // without credentials, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
+            // to use IAM Role define at the EC2 instance level ...
+            if (credentials != null) {
                 logAwsKey(credentials, "IAM");
-                client = AmazonIdentityManagementClientBuilder.standard()
-                        .withCredentials(credentials)
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
+                builder.withCredentials(credentials);
             }
             LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
-            return client;
+            return builder
+                    .withClientConfiguration(getClientConfiguration(key, httpClientSettings))
+                    .withRequestHandlers(getApiMetrics(credentialsId, regionName), getRateLimiter(credentialsId, regionName))
+                    .withMetricsCollector(poolMonitor)
+                    .withRegion(regionName)
+                    .build();
         });
     }
 
-    static AmazonECS getAmazonECSClient(final String credentialsId, final String regionName) {
-        return ecsClientsMap.computeIfAbsent(credentialsId+regionName, key -> {
-            final AmazonECS client;
-            final ClientConfiguration clientConfiguration = getClientConfiguration();
-            final AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials == null) {
-                // no credentials provided, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
-                // to use IAM Role define at the EC2 instance level ...
-                client = AmazonECSClientBuilder.standard()
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
-            } else {
+    static AmazonECSAsync getAmazonECSClient(final String credentialsId, final String regionName) {
+        return getAmazonECSClient(credentialsId, regionName, null);
+    }
+
+    static AmazonECSAsync getAmazonECSClient(final String credentialsId, final String regionName, @CheckForNull final ECSHttpClientSettings httpClientSettings) {
+        final AWSClientRegistry.Key key = new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings);
+        return ecsClients.get(key, AWSClientsManager::getCredentials, (credentials, poolMonitor) -> {
+            final AmazonECSAsyncClientBuilder builder = AmazonECSAsyncClientBuilder.standard()
+                    .withExecutorFactory(() -> newAsyncExecutor("ECS", regionName));
+            // without credentials, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
+            // to use IAM Role define at the EC2 instance level ...
+            if (credentials != null) {
                 logAwsKey(credentials, "ECS");
-                client = AmazonECSClientBuilder.standard()
-                        .withCredentials(credentials)
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
+                builder.withCredentials(credentials);
             }
             LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
-            return client;
+            return builder
+                    .withClientConfiguration(getClientConfiguration(key, httpClientSettings))
+                    .withRequestHandlers(getApiMetrics(credentialsId, regionName), getRateLimiter(credentialsId, regionName))
+                    .withMetricsCollector(poolMonitor)
+                    .withRegion(regionName)
+                    .build();
         });
     }
 
-    static AmazonAutoScaling getAmazonAutoScalingClient(final String credentialsId, final String regionName) {
-        return autoScalingClientsMap.computeIfAbsent(credentialsId+regionName, key -> {
-            final AmazonAutoScaling client;
-            final ClientConfiguration clientConfiguration = getClientConfiguration();
-            final AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials == null) {
-                // no credentials provided, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
-                // to use IAM Role define at the EC2 instance level ...
-                client = AmazonAutoScalingClientBuilder.standard()
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
-            } else {
+    static AmazonAutoScalingAsync getAmazonAutoScalingClient(final String credentialsId, final String regionName) {
+        return getAmazonAutoScalingClient(credentialsId, regionName, null);
+    }
+
+    static AmazonAutoScalingAsync getAmazonAutoScalingClient(final String credentialsId, final String regionName, @CheckForNull final ECSHttpClientSettings httpClientSettings) {
+        final AWSClientRegistry.Key key = new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings);
+        return autoScalingClients.get(key, AWSClientsManager::getCredentials, (credentials, poolMonitor) -> {
+            final AmazonAutoScalingAsyncClientBuilder builder = AmazonAutoScalingAsyncClientBuilder.standard()
+                    .withExecutorFactory(() -> newAsyncExecutor("AutoScaling", regionName));
+            // without credentials, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
+            // to use IAM Role define at the EC2 instance level ...
+            if (credentials != null) {
                 logAwsKey(credentials, "AutoScaling");
-                client = AmazonAutoScalingClientBuilder.standard()
-                        .withCredentials(credentials)
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
+                builder.withCredentials(credentials);
             }
             LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
-            return client;
+            return builder
+                    .withClientConfiguration(getClientConfiguration(key, httpClientSettings))
+                    .withRequestHandlers(getApiMetrics(credentialsId, regionName), getRateLimiter(credentialsId, regionName))
+                    .withMetricsCollector(poolMonitor)
+                    .withRegion(regionName)
+                    .build();
         });
     }
 
     static AmazonEC2 getAmazonEC2Client(final String credentialsId, final String regionName) {
-        return ec2ClientsMap.computeIfAbsent(credentialsId+regionName, key -> {
-            final AmazonEC2 client;
-            final ClientConfiguration clientConfiguration = getClientConfiguration();
-            final AmazonWebServicesCredentials credentials = getCredentials(credentialsId);
-            if (credentials == null) {
-                // no credentials provided, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
-                // to use IAM Role define at the EC2 instance level ...
-                client = AmazonEC2ClientBuilder.standard()
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
-            } else {
+        return getAmazonEC2Client(credentialsId, regionName, null);
+    }
+
+    static AmazonEC2 getAmazonEC2Client(final String credentialsId, final String regionName, @CheckForNull final ECSHttpClientSettings httpClientSettings) {
+        final AWSClientRegistry.Key key = new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings);
+        return ec2Clients.get(key, AWSClientsManager::getCredentials, (credentials, poolMonitor) -> {
+            final AmazonEC2ClientBuilder builder = AmazonEC2ClientBuilder.standard();
+            // without credentials, rely on com.amazonaws.auth.DefaultAWSCredentialsProviderChain
+            // to use IAM Role define at the EC2 instance level ...
+            if (credentials != null) {
                 logAwsKey(credentials, "EC2");
-                client = AmazonEC2ClientBuilder.standard()
-                        .withCredentials(credentials)
-                        .withClientConfiguration(clientConfiguration)
-                        .withRegion(regionName)
-                        .build();
+                builder.withCredentials(credentials);
             }
             LOGGER.log(Level.FINE, "Selected Region: {0}", regionName);
-            return client;
+            return builder
+                    .withClientConfiguration(getClientConfiguration(key, httpClientSettings))
+                    .withRequestHandlers(getApiMetrics(credentialsId, regionName), getRateLimiter(credentialsId, regionName))
+                    .withMetricsCollector(poolMonitor)
+                    .withRegion(regionName)
+                    .build();
         });
     }
 
+    /**
+     * Shuts down the clients which have not been used for a while.
+     */
+    @Extension
+    public static class IdleClientsEviction extends AsyncPeriodicWork {
+
+        public IdleClientsEviction() {
+            super("Amazon ECS idle clients eviction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(5);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            iamClients.evictIdle();
+            ecsClients.evictIdle();
+            autoScalingClients.evictIdle();
+            ec2Clients.evictIdle();
+            evictUnusedEcsServices();
+        }
+    }
+
+    @Terminator
+    public static void shutdownClients() {
+        iamClients.shutdownAll();
+        ecsClients.shutdownAll();
+        autoScalingClients.shutdownAll();
+        ec2Clients.shutdownAll();
+    }
+
     //
     //  Utils Methods
     //
 
-    private static ClientConfiguration getClientConfiguration() {
+    private static ExecutorService newAsyncExecutor(final String awsServiceName, final String regionName) {
+        return Executors.newFixedThreadPool(ASYNC_THREADS,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Amazon " + awsServiceName + " " + regionName));
+    }
+
+    private static ClientConfiguration getClientConfiguration(final AWSClientRegistry.Key key, @CheckForNull final ECSHttpClientSettings httpClientSettings) {
         final ProxyConfiguration proxy = Jenkins.get().proxy;
         final ClientConfiguration clientConfiguration = new ClientConfiguration();
+        if (httpClientSettings != null) {
+            httpClientSettings.apply(clientConfiguration);
+        }
+        // all clients of an account and region share the retry budgets of their operations
+        clientConfiguration.setRetryPolicy(retryPoliciesMap.computeIfAbsent(key.getAccountKey(), accountKey -> new ECSRetryPolicy()).toRetryPolicy());
         if (proxy != null) {
             clientConfiguration.setProxyHost(proxy.name);
             clientConfiguration.setProxyPort(proxy.port);
@@ -157,6 +268,38 @@ class AWSClientsManager {
         return clientConfiguration;
     }
 
+    /**
+     * All clients of an account and region share the rate limits of their operations.
+     */
+    static ECSRateLimiter getRateLimiter(final String credentialsId, final String regionName) {
+        return rateLimitersMap.computeIfAbsent(new AWSClientRegistry.Key(credentialsId, regionName, null), key -> new ECSRateLimiter(key.toString()));
+    }
+
+    /**
+     * @return the rate limiter wait statistics of every account and region, by operation
+     */
+    static Map<String, Map<String, String>> getRateLimiterStatistics() {
+        final Map<String, Map<String, String>> statistics = new TreeMap<>();
+        rateLimitersMap.forEach((key, rateLimiter) -> statistics.put(key.toString(), rateLimiter.getWaitStatistics()));
+        return statistics;
+    }
+
+    /**
+     * The calls of all clients of an account and region are counted together.
+     */
+    private static ECSApiMetrics getApiMetrics(final String credentialsId, final String regionName) {
+        return apiMetricsMap.computeIfAbsent(new AWSClientRegistry.Key(credentialsId, regionName, null), key -> new ECSApiMetrics());
+    }
+
+    /**
+     * @return the API call statistics of every account and region, by operation
+     */
+    static Map<String, Map<String, Object>> getApiStatistics() {
+        final Map<String, Map<String, Object>> statistics = new TreeMap<>();
+        apiMetricsMap.forEach((key, apiMetrics) -> statistics.put(key.toString(), apiMetrics.getStatistics()));
+        return statistics;
+    }
+
     @CheckForNull
     private static AmazonWebServicesCredentials getCredentials(@Nullable String credentialsId) {
         return AWSCredentialsHelper.getCredentials(credentialsId, Jenkins.get());
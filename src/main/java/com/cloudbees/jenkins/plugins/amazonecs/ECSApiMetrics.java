@@ -0,0 +1,182 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Counts and times the AWS API calls of one account and region per operation, with their outcome, attempts
+ * and throttles, so that the code paths using up the API limits of an account can be found.
+ *
+ * Calls are attributed to the plugin activity that made them (e.g. {@code <cloud>/capacity} or
+ * {@code scale in/<group>}) with {@link #withCaller(String, Supplier)}; calls made elsewhere count as {@code other}.
+ * The metrics of an operation are dropped once it has not been called for a full latency window, together with
+ * the callers of the operation.
+ */
+class ECSApiMetrics extends RequestHandler2 {
+
+    private static final String OTHER_CALLER = "other";
+
+    private static final ThreadLocal<String> caller = new ThreadLocal<>();
+
+    /**
+     * Keeps the caller of a request executed asynchronously.
+     */
+    private static final HandlerContextKey<String> CALLER = new HandlerContextKey<>("ECSApiMetrics.caller");
+    private static final HandlerContextKey<Long> STARTED_AT = new HandlerContextKey<>("ECSApiMetrics.startedAt");
+    private static final HandlerContextKey<AtomicInteger> ATTEMPTS = new HandlerContextKey<>("ECSApiMetrics.attempts");
+    private static final HandlerContextKey<AtomicInteger> THROTTLES = new HandlerContextKey<>("ECSApiMetrics.throttles");
+
+    private final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Attributes the calls made by the given code to the given caller.
+     */
+    static <T> T withCaller(String name, Supplier<T> calls) {
+        final String previous = caller.get();
+        caller.set(name);
+        try {
+            return calls.get();
+        } finally {
+            caller.set(previous);
+        }
+    }
+
+    static void withCaller(String name, Runnable calls) {
+        withCaller(name, () -> {
+            calls.run();
+            return null;
+        });
+    }
+
+    /**
+     * Keeps the caller of the calling thread for a request executed asynchronously.
+     */
+    static <R extends AmazonWebServiceRequest> R withCallerName(R request) {
+        final String name = caller.get();
+        if (name != null) {
+            request.addHandlerContext(CALLER, name);
+        }
+        return request;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        request.addHandlerContext(STARTED_AT, System.nanoTime());
+        request.addHandlerContext(ATTEMPTS, new AtomicInteger());
+        request.addHandlerContext(THROTTLES, new AtomicInteger());
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        final AtomicInteger attempts = context.getRequest().getHandlerContext(ATTEMPTS);
+        if (attempts != null) {
+            attempts.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        final AtomicInteger throttles = context.getRequest().getHandlerContext(THROTTLES);
+        if (throttles != null && context.getException() instanceof SdkBaseException
+                && RetryUtils.isThrottlingException((SdkBaseException) context.getException())) {
+            throttles.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        record(request, "success");
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        record(request, e instanceof AmazonServiceException ? ((AmazonServiceException) e).getErrorCode() : e.getClass().getSimpleName());
+    }
+
+    private void record(Request<?> request, String outcome) {
+        final Long startedAt = request.getHandlerContext(STARTED_AT);
+        if (startedAt == null) {
+            return;
+        }
+        final AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        String name = originalRequest == null ? null : originalRequest.getHandlerContext(CALLER);
+        if (name == null) {
+            name = caller.get();
+        }
+        final String callerName = name == null ? OTHER_CALLER : name;
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        final int attempts = request.getHandlerContext(ATTEMPTS).get();
+        final int throttles = request.getHandlerContext(THROTTLES).get();
+        // recorded under the lock of the entry, so that pruning cannot drop it meanwhile
+        operations.compute(ECSRetryPolicy.getOperation(originalRequest), (operation, metrics) -> {
+            final OperationMetrics operationMetrics = metrics == null ? new OperationMetrics() : metrics;
+            operationMetrics.record(callerName, outcome, millis, attempts, throttles);
+            return operationMetrics;
+        });
+    }
+
+    /**
+     * @return the statistics of every operation called within the latency window
+     */
+    Map<String, Object> getStatistics() {
+        prune();
+        final Map<String, Object> statistics = new TreeMap<>();
+        operations.forEach((operation, metrics) -> statistics.put(operation, metrics.getStatistics()));
+        return statistics;
+    }
+
+    private void prune() {
+        for (String operation : operations.keySet()) {
+            operations.computeIfPresent(operation, (key, metrics) -> metrics.isIdle() ? null : metrics);
+        }
+    }
+
+    private static class OperationMetrics {
+        private final ConcurrentHashMap<String, AtomicLong> callers = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong throttles = new AtomicLong();
+        private final ECSLatencyHistogram latency = new ECSLatencyHistogram();
+        private volatile long recordedAt = System.currentTimeMillis();
+
+        void record(String caller, String outcome, long millis, int attempts, int throttles) {
+            recordedAt = System.currentTimeMillis();
+            callers.computeIfAbsent(caller, key -> new AtomicLong()).incrementAndGet();
+            outcomes.computeIfAbsent(outcome, key -> new AtomicLong()).incrementAndGet();
+            retries.addAndGet(Math.max(0, attempts - 1));
+            this.throttles.addAndGet(throttles);
+            latency.record(millis);
+        }
+
+        boolean isIdle() {
+            return System.currentTimeMillis() - recordedAt >= ECSLatencyHistogram.WINDOW_MILLIS;
+        }
+
+        Map<String, Object> getStatistics() {
+            final Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("callers", new TreeMap<>(callers));
+            statistics.put("outcomes", new TreeMap<>(outcomes));
+            statistics.put("retries", retries.get());
+            statistics.put("throttles", throttles.get());
+            statistics.put("latency", latency.getStatistics());
+            return statistics;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.regions.Regions;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.slaves.Cloud;
 import jenkins.model.Jenkins;
@@ -13,8 +14,13 @@ import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 abstract class ECSCloud extends Cloud {
@@ -42,6 +48,15 @@ abstract class ECSCloud extends Cloud {
 
     protected int slaveTimeoutInSeconds;
 
+    /**
+     * HTTP client settings of the AWS clients, SDK defaults if null
+     */
+    @CheckForNull
+    protected ECSHttpClientSettings httpClientSettings;
+
+    @CheckForNull
+    private transient volatile ECSTemplateIndex templateIndex;
+
     ECSCloud(
             @Nonnull String name,
             @Nonnull String credentialsId,
@@ -102,27 +117,72 @@ abstract class ECSCloud extends Cloud {
     @DataBoundSetter
     abstract void setSlaveTimeoutInSeconds(int slaveTimeoutInSeconds);
 
+    @CheckForNull
+    public ECSHttpClientSettings getHttpClientSettings() {
+        return httpClientSettings;
+    }
+
+    @DataBoundSetter
+    public void setHttpClientSettings(@CheckForNull ECSHttpClientSettings httpClientSettings) {
+        this.httpClientSettings = httpClientSettings;
+    }
+
+    /**
+     * @return the connection pool usage of the AWS clients of this cloud, by AWS service
+     */
+    public Map<String, String> getHttpClientPoolUsage() {
+        final Map<String, String> usage = new LinkedHashMap<>();
+        AWSClientsManager.getHttpClientPools(credentialsId, regionName, httpClientSettings)
+                .forEach((awsServiceName, pool) -> usage.put(awsServiceName, pool.toString()));
+        return usage;
+    }
+
     /**
      *  Common methods
      */
 
     abstract void deleteTask(String taskArn, String clusterArn);
 
-    public static List<ECSSlave> getECSSlaves() {
-        final Jenkins jenkins = Jenkins.get();
-        final List<ECSSlave> ecsSlaves = new ArrayList<>();
-        final List<Node> allSlaves = jenkins.getNodes();
-        for (final Node n : allSlaves) {
-            if (n instanceof ECSSlave) {
-                final ECSSlave ecsSlave = (ECSSlave)n;
-                ecsSlaves.add(ecsSlave);
-            }
+    /**
+     * Starts provisioning a slave for the given template.
+     *
+     * @return completed with the slave once it is online
+     */
+    abstract CompletableFuture<Node> startProvisioning(ECSTaskTemplate template, @Nullable Label label);
+
+    /**
+     * @return the first template whose labels match the given label, if any
+     */
+    @CheckForNull
+    ECSTaskTemplate getTemplate(@CheckForNull Label label) {
+        ECSTemplateIndex index = templateIndex;
+        if (index == null || !index.isIndexOf(templates)) {
+            index = new ECSTemplateIndex(templates);
+            templateIndex = index;
         }
-        return ecsSlaves;
+        return index.getTemplate(label);
+    }
+
+    public static List<ECSSlave> getECSSlaves() {
+        return new ArrayList<>(ECSSlaveRegistry.getSlaves());
+    }
+
+    /**
+     * @return the slaves of this cloud
+     */
+    Collection<ECSSlave> getSlaves() {
+        return ECSSlaveRegistry.getSlaves(name);
     }
 
     protected synchronized ECSService getEcsService() {
-        return AWSClientsManager.getEcsService(credentialsId, regionName);
+        return AWSClientsManager.getEcsService(credentialsId, regionName, httpClientSettings);
+    }
+
+    /**
+     * @return the key of the ECS service of this cloud
+     */
+    synchronized AWSClientRegistry.Key getEcsServiceKey() {
+        return new AWSClientRegistry.Key(credentialsId, regionName, httpClientSettings);
     }
 
     protected static Region getRegion(String regionName) {
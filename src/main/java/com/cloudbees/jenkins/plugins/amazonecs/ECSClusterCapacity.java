@@ -0,0 +1,437 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.ContainerInstanceStatus;
+import com.amazonaws.services.ecs.model.PlacementConstraint;
+import com.amazonaws.services.ecs.model.PlacementConstraintType;
+import com.amazonaws.services.ecs.model.Resource;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Snapshot of the container instances of an ECS cluster, shared by everything provisioning slaves on it.
+ *
+ * The snapshot is refreshed at most once per refresh interval, or on the next read after it was invalidated
+ * because tasks were started or stopped. The number of cluster scans therefore does not depend on the
+ * number of slaves waiting for resources.
+ *
+ * Launches admitted on the snapshot {@link #reserve(ECSTaskTemplate) reserve} the memory and cpu of their
+ * template on one of the instances until a refresh reflects the started task (or the launch failed), so that
+ * concurrent launches do not all count on the same remaining resources. This ledger is the admission control
+ * of the cluster: reservations are short, in memory operations, so launches that fit the cluster are admitted
+ * in parallel, while launches that do not fit wait for the scale out outside of any lock.
+ */
+class ECSClusterCapacity {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(ECSClusterCapacity.class.getName() + ".refreshIntervalSeconds", 10));
+
+    private final String clusterArn;
+    private final ECSClusterInventory inventory;
+
+    private volatile List<ContainerInstance> containerInstances = Collections.emptyList();
+    /**
+     * Time of the last refresh, 0 if the snapshot has to be refreshed on the next read.
+     */
+    private volatile long refreshedAt;
+    /**
+     * Counts the invalidations, so that a refresh started before an invalidation does not count as fresh.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @GuardedBy("this")
+    private final List<Reservation> reservations = new ArrayList<>();
+
+    /**
+     * Instances emptied by the consolidation of the scale in, see {@link ECSClusterConsolidation}.
+     */
+    private volatile Map<String, String> evacuatedInstances = Collections.emptyMap();
+
+    /**
+     * Evacuated instances new slaves were placed on since the evacuated instances were last set, which a plan
+     * made in the meantime must not evacuate again.
+     */
+    @GuardedBy("this")
+    private final Set<String> neededInstances = new HashSet<>();
+
+    /**
+     * Instances the scale in started to drain, which take no new slaves even if the snapshot still shows them
+     * as active.
+     */
+    @GuardedBy("this")
+    private final Set<String> drainingInstances = new HashSet<>();
+
+    /**
+     * Serializes refreshes without blocking reservations on the running API calls.
+     */
+    private final Object refreshLock = new Object();
+
+    /**
+     * The refresh in progress, if any, shared by everything waiting for a fresh snapshot.
+     */
+    @CheckForNull
+    @GuardedBy("refreshLock")
+    private CompletableFuture<Void> refreshing;
+
+    ECSClusterCapacity(ECSService ecsService, String clusterArn) {
+        this.clusterArn = clusterArn;
+        this.inventory = new ECSClusterInventory(ecsService, clusterArn);
+    }
+
+    String getClusterArn() {
+        return clusterArn;
+    }
+
+    /**
+     * @return all container instances of the cluster, regardless of their status, refreshed first if stale
+     */
+    List<ContainerInstance> getContainerInstances() {
+        try {
+            refreshIfStale().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return containerInstances;
+    }
+
+    /**
+     * @return the current snapshot of the container instances, without refreshing it
+     */
+    List<ContainerInstance> getSnapshot() {
+        return containerInstances;
+    }
+
+    /**
+     * Refreshes the snapshot if it is stale, without blocking the calling thread: the cluster is read with the
+     * asynchronous ECS client, and concurrent callers share one refresh.
+     *
+     * @return completed once the snapshot is fresh
+     */
+    CompletableFuture<Void> refreshIfStale() {
+        if (!isStale()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (refreshLock) {
+            if (refreshing == null) {
+                final long startedAt = System.currentTimeMillis();
+                final long startedGeneration = generation.get();
+                CompletableFuture<Void> refresh;
+                try {
+                    refresh = inventory.getContainerInstancesAsync(null).thenAccept(refreshed -> refreshed(refreshed, startedAt, startedGeneration));
+                } catch (RuntimeException e) {
+                    refresh = new CompletableFuture<>();
+                    refresh.completeExceptionally(e);
+                }
+                refreshing = refresh;
+                final CompletableFuture<Void> done = refresh;
+                refresh.whenComplete((result, e) -> {
+                    synchronized (refreshLock) {
+                        if (refreshing == done) {
+                            refreshing = null;
+                        }
+                    }
+                });
+            }
+            return refreshing;
+        }
+    }
+
+    /**
+     * @return the container instances new tasks can be placed on
+     */
+    List<ContainerInstance> getActiveContainerInstances() {
+        return getContainerInstances().stream()
+                .filter(containerInstance -> ContainerInstanceStatus.ACTIVE.toString().equals(containerInstance.getStatus()))
+                .collect(Collectors.toList());
+    }
+
+    int count(ContainerInstanceStatus status) {
+        return count(getContainerInstances(), status);
+    }
+
+    static int count(List<ContainerInstance> containerInstances, ContainerInstanceStatus status) {
+        return (int) containerInstances.stream()
+                .filter(containerInstance -> status.toString().equals(containerInstance.getStatus()))
+                .count();
+    }
+
+    /**
+     * Reserves the resources of the given template on an active instance that can still run it, taking the
+     * resources reserved by other launches into account. The current snapshot is used as it is, see
+     * {@link #refreshIfStale()}.
+     *
+     * @return the reservation, or null if no instance has sufficient resources left
+     */
+    @CheckForNull
+    Reservation reserve(ECSTaskTemplate template) {
+        synchronized (this) {
+            // the snapshot and the reservations it does not reflect yet are only consistent while holding the lock
+            return reserve(template, containerInstances);
+        }
+    }
+
+    @CheckForNull
+    @GuardedBy("this")
+    Reservation reserve(ECSTaskTemplate template, List<ContainerInstance> containerInstances) {
+        // evacuated instances only take new tasks if no other instance can
+        for (ContainerInstance instance : containerInstances) {
+            if (!evacuatedInstances.containsKey(instance.getContainerInstanceArn())) {
+                final Reservation reservation = reserve(template, instance);
+                if (reservation != null) {
+                    return reservation;
+                }
+            }
+        }
+        for (ContainerInstance instance : containerInstances) {
+            if (evacuatedInstances.containsKey(instance.getContainerInstanceArn())) {
+                final Reservation reservation = reserve(template, instance);
+                if (reservation != null) {
+                    LOGGER.log(Level.INFO, "Stop evacuating instance {0} of ECS cluster {1}, it is needed for new slaves", new Object[] {instance.getEc2InstanceId(), clusterArn});
+                    final Map<String, String> stillEvacuated = new LinkedHashMap<>(evacuatedInstances);
+                    stillEvacuated.remove(instance.getContainerInstanceArn());
+                    evacuatedInstances = Collections.unmodifiableMap(stillEvacuated);
+                    neededInstances.add(instance.getContainerInstanceArn());
+                    return reservation;
+                }
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    @GuardedBy("this")
+    private Reservation reserve(ECSTaskTemplate template, ContainerInstance instance) {
+        final String instanceArn = instance.getContainerInstanceArn();
+        if (!ContainerInstanceStatus.ACTIVE.toString().equals(instance.getStatus()) || drainingInstances.contains(instanceArn)) {
+            return null;
+        }
+        final int memory = getUnreservedResource(instance, "MEMORY");
+        final int cpu = getUnreservedResource(instance, "CPU");
+        LOGGER.log(Level.FINE, "Instance {0} has {1}mb of unreserved memory. {2}mb are required", new Object[] {instanceArn, memory, template.getMemoryConstraint()});
+        LOGGER.log(Level.FINE, "Instance {0} has {1} units of unreserved cpu. {2} units are required", new Object[] {instanceArn, cpu, template.getCpu()});
+        if (memory >= template.getMemoryConstraint() && cpu >= template.getCpu()) {
+            final Reservation reservation = new Reservation(instanceArn, instance.getEc2InstanceId(), template.getMemoryConstraint(), template.getCpu());
+            reservations.add(reservation);
+            return reservation;
+        }
+        return null;
+    }
+
+    /**
+     * @return the cpu and memory not reserved yet on each active instance of the current snapshot, as
+     * {cpu, memory} pairs
+     */
+    synchronized List<int[]> getUnreservedResources() {
+        final List<int[]> unreserved = new ArrayList<>();
+        for (ContainerInstance instance : containerInstances) {
+            if (ContainerInstanceStatus.ACTIVE.toString().equals(instance.getStatus())) {
+                unreserved.add(new int[] {getUnreservedResource(instance, "CPU"), getUnreservedResource(instance, "MEMORY")});
+            }
+        }
+        return unreserved;
+    }
+
+    @GuardedBy("this")
+    private int getUnreservedResource(ContainerInstance instance, String name) {
+        int unreserved = getRemainingResource(instance, name);
+        for (Reservation reservation : reservations) {
+            if (reservation.containerInstanceArn.equals(instance.getContainerInstanceArn())) {
+                unreserved -= "CPU".equals(name) ? reservation.cpu : reservation.memory;
+            }
+        }
+        return unreserved;
+    }
+
+    /**
+     * @return the instances evacuated by the consolidation of the cluster, by container instance ARN with their
+     * EC2 instance ids
+     */
+    Map<String, String> getEvacuatedInstances() {
+        return evacuatedInstances;
+    }
+
+    /**
+     * Replaces the evacuated instances with a new plan, except for the instances new slaves were placed on while
+     * the plan was made.
+     *
+     * @return the instances now evacuated
+     */
+    synchronized Map<String, String> setEvacuatedInstances(Map<String, String> evacuatedInstances) {
+        final Map<String, String> evacuated = new LinkedHashMap<>(evacuatedInstances);
+        evacuated.keySet().removeAll(neededInstances);
+        neededInstances.clear();
+        this.evacuatedInstances = Collections.unmodifiableMap(evacuated);
+        return this.evacuatedInstances;
+    }
+
+    /**
+     * Checks right before an evacuated instance is drained that it is still evacuated and that no launch needs it,
+     * and keeps new slaves off it from then on.
+     *
+     * @return whether the instance may be drained
+     */
+    synchronized boolean startDraining(String instanceArn) {
+        if (!evacuatedInstances.containsKey(instanceArn) || neededInstances.contains(instanceArn)) {
+            return false;
+        }
+        for (Reservation reservation : reservations) {
+            if (reservation.containerInstanceArn.equals(instanceArn)) {
+                return false;
+            }
+        }
+        drainingInstances.add(instanceArn);
+        return true;
+    }
+
+    /**
+     * Lets new slaves use an instance again whose draining failed.
+     */
+    synchronized void drainingFailed(String instanceArn) {
+        drainingInstances.remove(instanceArn);
+    }
+
+    /**
+     * @return the amount of the given resource ("CPU" or "MEMORY") reserved by launches, which the cluster may
+     * not reflect yet
+     */
+    synchronized int getReservedResource(String name) {
+        int reserved = 0;
+        for (Reservation reservation : reservations) {
+            reserved += "CPU".equals(name) ? reservation.cpu : reservation.memory;
+        }
+        return reserved;
+    }
+
+    private synchronized void release(Reservation reservation) {
+        reservations.remove(reservation);
+    }
+
+    /**
+     * Makes the next read refresh the snapshot, e.g. because tasks were started or stopped.
+     */
+    synchronized void invalidate() {
+        // under the lock a refresh completing concurrently sees the new generation or is overridden
+        generation.incrementAndGet();
+        refreshedAt = 0;
+    }
+
+    private boolean isStale() {
+        return System.currentTimeMillis() - refreshedAt >= REFRESH_INTERVAL_MILLIS;
+    }
+
+    private void refreshed(List<ContainerInstance> refreshed, long startedAt, long startedGeneration) {
+        synchronized (this) {
+            containerInstances = refreshed;
+            // invalidated while the cluster was read: the snapshot may miss the changes, so the next read refreshes again
+            if (generation.get() == startedGeneration) {
+                refreshedAt = System.currentTimeMillis();
+            }
+            // the remaining resources of the new snapshot include the tasks started before it was taken
+            reservations.removeIf(reservation -> reservation.placedAt != 0 && reservation.placedAt < startedAt);
+            // once the snapshot shows an instance as draining, its status keeps new slaves off it
+            drainingInstances.removeIf(instanceArn -> refreshed.stream().noneMatch(instance -> instanceArn.equals(instance.getContainerInstanceArn())
+                    && ContainerInstanceStatus.ACTIVE.toString().equals(instance.getStatus())));
+        }
+        LOGGER.log(Level.FINE, "Refreshed capacity of ECS cluster {0}: {1} instances", new Object[] {clusterArn, refreshed.size()});
+    }
+
+    /**
+     * @return the remaining amount of the given resource ("CPU" or "MEMORY") of a container instance
+     */
+    static int getRemainingResource(ContainerInstance containerInstance, String name) {
+        return getResource(containerInstance.getRemainingResources(), name);
+    }
+
+    /**
+     * @return the registered amount of the given resource ("CPU" or "MEMORY") of a container instance
+     */
+    static int getRegisteredResource(ContainerInstance containerInstance, String name) {
+        return getResource(containerInstance.getRegisteredResources(), name);
+    }
+
+    /**
+     * @return the amount of the given resource ("CPU" or "MEMORY") reserved by the tasks of a container instance
+     */
+    static int getUsedResource(ContainerInstance containerInstance, String name) {
+        return getRegisteredResource(containerInstance, name) - getRemainingResource(containerInstance, name);
+    }
+
+    private static int getResource(List<Resource> resources, String name) {
+        for (Resource resource : resources) {
+            if (name.equals(resource.getName())) {
+                return resource.getIntegerValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Resources of a template reserved on a container instance for a launch.
+     */
+    final class Reservation {
+        private final String containerInstanceArn;
+        private final String ec2InstanceId;
+        private final int memory;
+        private final int cpu;
+        /**
+         * Time the task was started, 0 as long as it has not been started.
+         */
+        private volatile long placedAt;
+
+        private Reservation(String containerInstanceArn, String ec2InstanceId, int memory, int cpu) {
+            this.containerInstanceArn = containerInstanceArn;
+            this.ec2InstanceId = ec2InstanceId;
+            this.memory = memory;
+            this.cpu = cpu;
+        }
+
+        String getContainerInstanceArn() {
+            return containerInstanceArn;
+        }
+
+        /**
+         * Makes ECS place the task on the instance the resources were reserved on, as other instances may not have
+         * them.
+         */
+        void applyPlacement(RunTaskRequest runTaskRequest) {
+            runTaskRequest.withPlacementConstraints(new PlacementConstraint()
+                    .withType(PlacementConstraintType.MemberOf)
+                    .withExpression("ec2InstanceId == '" + ec2InstanceId + "'"));
+        }
+
+        /**
+         * Keeps the reservation until the next refresh, which will account for the started task.
+         */
+        void placed() {
+            placedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Gives the reserved resources back right away, e.g. because the task could not be started.
+         */
+        void release() {
+            ECSClusterCapacity.this.release(this);
+        }
+    }
+}
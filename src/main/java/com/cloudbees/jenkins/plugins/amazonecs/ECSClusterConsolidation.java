@@ -0,0 +1,101 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.PlacementConstraint;
+import com.amazonaws.services.ecs.model.PlacementConstraintType;
+import com.amazonaws.services.ecs.model.PlacementStrategy;
+import com.amazonaws.services.ecs.model.PlacementStrategyType;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Bin packing of the slaves of a cluster on as few instances as possible. After a burst of builds, the remaining
+ * slaves are spread thinly over many instances which never become idle. The consolidation keeps the fullest busy
+ * instances able to absorb the current load and evacuates the others: new slaves are placed on the kept instances,
+ * and the evacuated instances are drained once their slaves, which run a single build, have finished. Running
+ * builds are never stopped.
+ */
+final class ECSClusterConsolidation {
+
+    /**
+     * Utilization of the kept instances the current load may reach, leaving room for new slaves.
+     */
+    private static final double MAX_UTILIZATION = Integer.getInteger(
+            ECSClusterConsolidation.class.getName() + ".maxUtilizationPercent", 80) / 100.0;
+
+    /**
+     * Bounds the placement constraint excluding the evacuated instances, which ECS limits to 2000 characters.
+     */
+    private static final int MAX_EVACUATED_INSTANCES = 50;
+
+    private ECSClusterConsolidation() {
+    }
+
+    /**
+     * Idle instances are left to the scale in policy: they are neither evacuated nor counted to absorb the load.
+     *
+     * @param reservedCpu cpu reserved by launches in progress, which the kept instances must absorb as well
+     * @param reservedMemory memory reserved by launches in progress
+     * @return the busy instances to evacuate, by container instance ARN with their EC2 instance ids
+     */
+    static Map<String, String> plan(List<ContainerInstance> activeInstances, int reservedCpu, int reservedMemory) {
+        final List<ContainerInstance> busyInstances = activeInstances.stream()
+                .filter(instance -> ECSScaleInContext.getTaskCount(instance) > 0)
+                .sorted(Comparator.comparingDouble(ECSClusterConsolidation::getUtilization).reversed())
+                .collect(Collectors.toList());
+        long cpuLoad = reservedCpu;
+        long memoryLoad = reservedMemory;
+        for (ContainerInstance instance : busyInstances) {
+            cpuLoad += ECSClusterCapacity.getUsedResource(instance, "CPU");
+            memoryLoad += ECSClusterCapacity.getUsedResource(instance, "MEMORY");
+        }
+
+        // keep the fullest instances until they can absorb the load
+        int kept = 0;
+        long cpu = 0;
+        long memory = 0;
+        while (kept < busyInstances.size() && (cpu * MAX_UTILIZATION < cpuLoad || memory * MAX_UTILIZATION < memoryLoad)) {
+            cpu += ECSClusterCapacity.getRegisteredResource(busyInstances.get(kept), "CPU");
+            memory += ECSClusterCapacity.getRegisteredResource(busyInstances.get(kept), "MEMORY");
+            kept++;
+        }
+
+        final Map<String, String> evacuated = new LinkedHashMap<>();
+        for (ContainerInstance instance : busyInstances.subList(Math.max(kept, busyInstances.size() - MAX_EVACUATED_INSTANCES), busyInstances.size())) {
+            evacuated.put(instance.getContainerInstanceArn(), instance.getEc2InstanceId());
+        }
+        return evacuated;
+    }
+
+    /**
+     * Makes ECS pack the task on the fullest instance that is not evacuated.
+     */
+    static void applyPlacement(RunTaskRequest runTaskRequest, Collection<String> evacuatedInstanceIds) {
+        runTaskRequest.withPlacementStrategy(new PlacementStrategy().withType(PlacementStrategyType.Binpack).withField("memory"));
+        if (!evacuatedInstanceIds.isEmpty()) {
+            final List<String> quoted = new ArrayList<>();
+            for (String instanceId : evacuatedInstanceIds) {
+                quoted.add('\'' + instanceId + '\'');
+            }
+            runTaskRequest.withPlacementConstraints(new PlacementConstraint()
+                    .withType(PlacementConstraintType.MemberOf)
+                    .withExpression("ec2InstanceId !in [" + String.join(", ", quoted) + "]"));
+        }
+    }
+
+    private static double getUtilization(ContainerInstance instance) {
+        return Math.max(getShare(instance, "CPU"), getShare(instance, "MEMORY"));
+    }
+
+    private static double getShare(ContainerInstance instance, String name) {
+        final int registered = ECSClusterCapacity.getRegisteredResource(instance, name);
+        return registered <= 0 ? 0 : (double) ECSClusterCapacity.getUsedResource(instance, name) / registered;
+    }
+}
@@ -0,0 +1,122 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.ContainerInstanceStatus;
+import com.amazonaws.services.ecs.model.DescribeContainerInstancesResult;
+import com.amazonaws.services.ecs.model.Failure;
+import com.amazonaws.services.ecs.model.ListContainerInstancesRequest;
+import com.amazonaws.services.ecs.model.ListContainerInstancesResult;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the complete list of container instances of a cluster: the list is paged through completely and
+ * the instances are described in chunks of at most 100 (the limit of DescribeContainerInstances), which
+ * run in parallel on the asynchronous ECS client.
+ */
+class ECSClusterInventory {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    /**
+     * Maximum number of container instances DescribeContainerInstances accepts per call.
+     */
+    private static final int DESCRIBE_CHUNK_SIZE = 100;
+
+    private final ECSService ecsService;
+    private final String clusterArn;
+
+    ECSClusterInventory(ECSService ecsService, String clusterArn) {
+        this.ecsService = ecsService;
+        this.clusterArn = clusterArn;
+    }
+
+    /**
+     * @param status the status of the instances to read, null for all but INACTIVE instances
+     */
+    List<ContainerInstance> getContainerInstances(@CheckForNull ContainerInstanceStatus status) {
+        return describeContainerInstances(listContainerInstanceArns(status));
+    }
+
+    List<String> listContainerInstanceArns(@CheckForNull ContainerInstanceStatus status) {
+        final AmazonECS client = ecsService.getAmazonECSClient();
+        final List<String> instanceArns = new ArrayList<>();
+        String nextToken = null;
+        do {
+            final ListContainerInstancesRequest request = new ListContainerInstancesRequest().withCluster(clusterArn).withNextToken(nextToken);
+            if (status != null) {
+                request.setStatus(status);
+            }
+            final ListContainerInstancesResult result = client.listContainerInstances(request);
+            instanceArns.addAll(result.getContainerInstanceArns());
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        return instanceArns;
+    }
+
+    List<ContainerInstance> describeContainerInstances(List<String> instanceArns) {
+        try {
+            return describeContainerInstancesAsync(instanceArns).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the container instances like {@link #getContainerInstances(ContainerInstanceStatus)} without blocking the
+     * calling thread: every page and chunk is read with the asynchronous ECS client.
+     */
+    CompletableFuture<List<ContainerInstance>> getContainerInstancesAsync(@CheckForNull ContainerInstanceStatus status) {
+        return listContainerInstanceArnsAsync(status, null, new ArrayList<>()).thenCompose(this::describeContainerInstancesAsync);
+    }
+
+    private CompletableFuture<List<String>> listContainerInstanceArnsAsync(@CheckForNull ContainerInstanceStatus status, @CheckForNull String nextToken, List<String> instanceArns) {
+        final ListContainerInstancesRequest request = new ListContainerInstancesRequest().withCluster(clusterArn).withNextToken(nextToken);
+        if (status != null) {
+            request.setStatus(status);
+        }
+        return ecsService.listContainerInstancesAsync(request).thenCompose(result -> {
+            instanceArns.addAll(result.getContainerInstanceArns());
+            return result.getNextToken() == null
+                    ? CompletableFuture.completedFuture(instanceArns)
+                    : listContainerInstanceArnsAsync(status, result.getNextToken(), instanceArns);
+        });
+    }
+
+    private CompletableFuture<List<ContainerInstance>> describeContainerInstancesAsync(List<String> instanceArns) {
+        if (instanceArns.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        final List<CompletableFuture<List<ContainerInstance>>> chunks = new ArrayList<>();
+        for (int i = 0; i < instanceArns.size(); i += DESCRIBE_CHUNK_SIZE) {
+            chunks.add(ecsService.describeContainerInstancesAsync(clusterArn, instanceArns.subList(i, Math.min(i + DESCRIBE_CHUNK_SIZE, instanceArns.size())))
+                    .thenApply(this::getContainerInstances));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(done -> {
+            final List<ContainerInstance> containerInstances = new ArrayList<>(instanceArns.size());
+            for (CompletableFuture<List<ContainerInstance>> chunk : chunks) {
+                containerInstances.addAll(chunk.join());
+            }
+            return containerInstances;
+        });
+    }
+
+    private List<ContainerInstance> getContainerInstances(DescribeContainerInstancesResult result) {
+        for (Failure failure : result.getFailures()) {
+            LOGGER.log(Level.WARNING, "Cannot describe container instance {0} of ECS cluster {1}: {2}",
+                    new Object[] {failure.getArn(), clusterArn, failure.getReason()});
+        }
+        return result.getContainerInstances();
+    }
+}
@@ -3,59 +3,52 @@ package com.cloudbees.jenkins.plugins.amazonecs;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 
-import com.amazonaws.services.autoscaling.AmazonAutoScaling;
 import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
 import com.amazonaws.services.autoscaling.model.SetInstanceProtectionRequest;
 import com.amazonaws.services.autoscaling.model.TerminateInstanceInAutoScalingGroupRequest;
 import com.amazonaws.services.autoscaling.model.UpdateAutoScalingGroupRequest;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
-import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ecs.AmazonECS;
 import com.amazonaws.services.ecs.model.ContainerInstance;
 import com.amazonaws.services.ecs.model.ContainerInstanceStatus;
-import com.amazonaws.services.ecs.model.DescribeContainerInstancesRequest;
-import com.amazonaws.services.ecs.model.ListContainerInstancesRequest;
-import com.amazonaws.services.ecs.model.ListContainerInstancesResult;
 import com.amazonaws.services.ecs.model.UpdateContainerInstancesStateRequest;
 
 public class ECSClusterScaleIn implements Runnable {
 
     private static final Logger LOGGER = Logger.getLogger(ECSClusterScaleIn.class.getName());
 
-    private final int idleWhenSecondsUntilNextHour = 240;
-
     private final String ecsClusterArn;
     private final String autoScalingGroupName;
 
-    private final AmazonAutoScaling autoScalingClient;
-    private final AmazonECS ecsClient;
-    private final AmazonEC2 ec2Client;
-    
+    private final ECSService ecsService;
+    private final ECSClusterInventory inventory;
+    private final ECSScaleInPolicy policy;
+    private final boolean consolidate;
+
     ECSClusterScaleIn(
             @Nonnull final ECSService ecsService,
             @Nonnull final String ecsClusterArn,
-            @Nonnull final String autoScalingGroupName
+            @Nonnull final String autoScalingGroupName,
+            @Nonnull final ECSScaleInPolicy policy,
+            final boolean consolidate
     ) {
         this.ecsClusterArn = ecsClusterArn;
         this.autoScalingGroupName = autoScalingGroupName;
-
-        // init AWS clients
-        this.autoScalingClient = ecsService.getAmazonAutoScalingClient();
-        this.ecsClient = ecsService.getAmazonECSClient();
-        this.ec2Client = ecsService.getAmazonEC2Client();
+        this.policy = policy;
+        this.consolidate = consolidate;
+        // the AWS clients are looked up on every use, as idle or stale clients are evicted
+        this.ecsService = ecsService;
+        this.inventory = new ECSClusterInventory(ecsService, ecsClusterArn);
     }
 
     private AutoScalingGroup getAutoScalingGroup() {
         // fetch auto scaling group
         final Collection<String> autoScalingGroupNames = new ArrayList<>();
         autoScalingGroupNames.add(autoScalingGroupName);
-        final List<AutoScalingGroup> autoScalingGroups = autoScalingClient.describeAutoScalingGroups(new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(autoScalingGroupNames)).getAutoScalingGroups();
+        final List<AutoScalingGroup> autoScalingGroups = ecsService.getAmazonAutoScalingClient().describeAutoScalingGroups(new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(autoScalingGroupNames)).getAutoScalingGroups();
         if (autoScalingGroups.size() >= 1) {
             return autoScalingGroups.get(0);
         } else {
@@ -64,7 +57,7 @@ public class ECSClusterScaleIn implements Runnable {
     }
 
     private void protectInstanceFromScaleIn(final String instanceId, final Boolean protectFromScaleIn) {
-        autoScalingClient.setInstanceProtection(new SetInstanceProtectionRequest().withAutoScalingGroupName(autoScalingGroupName).withInstanceIds(instanceId).withProtectedFromScaleIn(protectFromScaleIn));
+        ecsService.getAmazonAutoScalingClient().setInstanceProtection(new SetInstanceProtectionRequest().withAutoScalingGroupName(autoScalingGroupName).withInstanceIds(instanceId).withProtectedFromScaleIn(protectFromScaleIn));
     }
 
     private void unprotect(final String instanceId) {
@@ -73,38 +66,64 @@ public class ECSClusterScaleIn implements Runnable {
 
     private void terminate(final String instanceId) {
         unprotect(instanceId);
-        autoScalingClient.terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest().withInstanceId(instanceId).withShouldDecrementDesiredCapacity(true));
-    }
-
-    private List<String> getInstanceArns(final ContainerInstanceStatus status) {
-        ListContainerInstancesRequest request = new ListContainerInstancesRequest().withCluster(ecsClusterArn).withStatus(status);
-        ListContainerInstancesResult result = ecsClient.listContainerInstances(request);
-
-        final List<String> instanceArns = new ArrayList<>(result.getContainerInstanceArns());
-        String nextToken = result.getNextToken();
-        while (nextToken != null) {
-            request = new ListContainerInstancesRequest().withCluster(ecsClusterArn).withStatus(status).withNextToken(nextToken);
-            result = ecsClient.listContainerInstances(request);
-            instanceArns.addAll(result.getContainerInstanceArns());
-            nextToken = result.getNextToken();
-        }
-        return instanceArns;
+        ecsService.getAmazonAutoScalingClient().terminateInstanceInAutoScalingGroup(new TerminateInstanceInAutoScalingGroupRequest().withInstanceId(instanceId).withShouldDecrementDesiredCapacity(true));
     }
 
     private List<ContainerInstance> describeInstances(final ContainerInstanceStatus status) {
-        final List<String> instanceArns = getInstanceArns(status);
-        if (!instanceArns.isEmpty()) {
-            return ecsClient.describeContainerInstances(new DescribeContainerInstancesRequest().withCluster(ecsClusterArn).withContainerInstances(instanceArns)).getContainerInstances();
-        }
-        return Collections.emptyList();
+        return inventory.getContainerInstances(status);
     }
 
     public void drain(final String instanceArn) {
-        ecsClient.updateContainerInstancesState(new UpdateContainerInstancesStateRequest().withCluster(ecsClusterArn).withStatus(ContainerInstanceStatus.DRAINING).withContainerInstances(instanceArn));
+        ecsService.getAmazonECSClient().updateContainerInstancesState(new UpdateContainerInstancesStateRequest().withCluster(ecsClusterArn).withStatus(ContainerInstanceStatus.DRAINING).withContainerInstances(instanceArn));
+    }
+
+    /**
+     * Drains the instances evacuated by the previous passes whose slaves have finished, and evacuates the
+     * instances not needed for the current load, see {@link ECSClusterConsolidation}.
+     */
+    private void consolidate(final List<ContainerInstance> activeInstances, final Set<String> drainedInstanceArns) {
+        final ECSClusterCapacity capacity = ecsService.getClusterCapacity(ecsClusterArn);
+        if (!consolidate) {
+            if (!capacity.getEvacuatedInstances().isEmpty()) {
+                capacity.setEvacuatedInstances(Collections.emptyMap());
+            }
+            return;
+        }
+        final Map<String, String> evacuatedInstances = capacity.getEvacuatedInstances();
+        final List<ContainerInstance> remainingInstances = new ArrayList<>();
+        for (final ContainerInstance containerInstance : activeInstances) {
+            final String instanceArn = containerInstance.getContainerInstanceArn();
+            if (drainedInstanceArns.contains(instanceArn)) {
+                continue;
+            }
+            // a launch may have reserved the instance since the evacuated instances were read
+            if (evacuatedInstances.containsKey(instanceArn) && ECSScaleInContext.getTaskCount(containerInstance) == 0
+                    && capacity.startDraining(instanceArn)) {
+                LOGGER.log(Level.INFO, "Draining ECS cluster {0} instance {1} because its slaves were consolidated on other instances", new Object[]{ecsClusterArn, containerInstance.getEc2InstanceId()});
+                try {
+                    drain(instanceArn);
+                } catch (RuntimeException e) {
+                    capacity.drainingFailed(instanceArn);
+                    throw e;
+                }
+            } else {
+                remainingInstances.add(containerInstance);
+            }
+        }
+        final Map<String, String> evacuate = capacity.setEvacuatedInstances(ECSClusterConsolidation.plan(remainingInstances,
+                capacity.getReservedResource("CPU"), capacity.getReservedResource("MEMORY")));
+        if (!evacuate.isEmpty()) {
+            LOGGER.log(Level.INFO, "Consolidating ECS cluster {0}: no new slaves on instances {1}", new Object[]{ecsClusterArn, evacuate.values()});
+        }
     }
 
     @Override
     public void run() {
+        // leave the API rate limits to provisioning
+        ECSApiMetrics.withCaller("scale in/" + autoScalingGroupName, () -> ECSRateLimiter.inBackground(this::scaleIn));
+    }
+
+    private void scaleIn() {
         try {
             LOGGER.log(Level.INFO, "Scale In check for ECS cluster {0} (using auto scaling group {1})", new Object[]{ecsClusterArn, autoScalingGroupName});
 
@@ -112,7 +131,7 @@ public class ECSClusterScaleIn implements Runnable {
             Optional.ofNullable(getAutoScalingGroup()).ifPresent(group -> {
                 if (!group.isNewInstancesProtectedFromScaleIn()) {
                     LOGGER.log(Level.INFO, "Set termination protection for instances in ECS cluster {0} (using auto scaling group {1})", new Object[]{ecsClusterArn, autoScalingGroupName});
-                    autoScalingClient.updateAutoScalingGroup(
+                    ecsService.getAmazonAutoScalingClient().updateAutoScalingGroup(
                             new UpdateAutoScalingGroupRequest()
                                     .withAutoScalingGroupName(group.getAutoScalingGroupName())
                                     .withNewInstancesProtectedFromScaleIn(true)
@@ -130,33 +149,29 @@ public class ECSClusterScaleIn implements Runnable {
                 }
             }
 
-            // DRAIN idle jenkins slaves approaching the next billing hour
+            // DRAIN the instances chosen by the scale in policy
             // (ECS will not start new tasks on a draining slave)
-            for (final ContainerInstance containerInstance : describeInstances(ContainerInstanceStatus.ACTIVE)) {
-                final String instanceId = containerInstance.getEc2InstanceId();
-                final String instanceArn = containerInstance.getContainerInstanceArn();
-                final int taskCount = containerInstance.getPendingTasksCount() + containerInstance.getRunningTasksCount();
-                final DescribeInstancesResult describeInstanceResult = ec2Client.describeInstances(new DescribeInstancesRequest().withInstanceIds(containerInstance.getEc2InstanceId()));
-                final Instance instance = describeInstanceResult.getReservations().get(0).getInstances().get(0);
-                final Date launchTime = instance.getLaunchTime();
-                final long upTimeInMilliSeconds = new Date().getTime() - launchTime.getTime();
-                final long upTimeInSeconds = upTimeInMilliSeconds / 1000;
-                final long remainingSecondsUntilNextHour = 3600 - upTimeInSeconds % 3600;
-                LOGGER.log(Level.FINE, "ECS cluster {0} instance {1} has uptime of {2} seconds - {3} seconds remaining until next billing hour", new Object[]{ecsClusterArn, instanceId, upTimeInSeconds, remainingSecondsUntilNextHour});
-                final String reasonToDrain;
-                if (upTimeInSeconds > 10 * 3600) {
-                    reasonToDrain = "it's running for more than 10 hours";
-                } else if (taskCount == 0 && remainingSecondsUntilNextHour < idleWhenSecondsUntilNextHour) {
-                    reasonToDrain = "it's idle and close to the next billing hour";
+            final List<ContainerInstance> instances = describeInstances(ContainerInstanceStatus.ACTIVE);
+            final Map<String, Date> launchTimes = ecsService.getInstanceLaunchTimes().get(
+                    instances.stream().map(ContainerInstance::getEc2InstanceId).collect(Collectors.toList()));
+            final List<ContainerInstance> activeInstances = new ArrayList<>();
+            for (final ContainerInstance containerInstance : instances) {
+                if (launchTimes.containsKey(containerInstance.getEc2InstanceId())) {
+                    activeInstances.add(containerInstance);
                 } else {
-                    reasonToDrain = null;
+                    LOGGER.log(Level.FINE, "ECS cluster {0} instance {1} is not running anymore", new Object[]{ecsClusterArn, containerInstance.getEc2InstanceId()});
                 }
-                Optional.ofNullable(reasonToDrain)
-                        .ifPresent(reason -> {
-                            LOGGER.log(Level.INFO, "Draining ECS cluster {0} instance {1} because {2}", new Object[]{ecsClusterArn, instanceId, reasonToDrain});
-                            drain(instanceArn);
-                        });
             }
+            final long now = System.currentTimeMillis();
+            final ECSScaleInContext context = new ECSScaleInContext(ecsClusterArn, activeInstances, launchTimes,
+                    ecsService.getInstanceIdleTimes().update(activeInstances, now), now);
+            final Map<String, String> instancesToDrain = policy.getInstancesToDrain(context);
+            for (final Map.Entry<String, String> entry : instancesToDrain.entrySet()) {
+                LOGGER.log(Level.INFO, "Draining ECS cluster {0} instance {1} because {2}", new Object[]{ecsClusterArn, entry.getKey(), entry.getValue()});
+                drain(entry.getKey());
+            }
+
+            consolidate(activeInstances, instancesToDrain.keySet());
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
         }
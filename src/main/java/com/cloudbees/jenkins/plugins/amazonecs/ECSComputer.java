@@ -57,6 +57,12 @@ public class ECSComputer extends AbstractCloudComputer {
         // Now that we have a task, we want to make sure to tell Jenkins
         // that this computer is no longer accepting any additional tasks.
         setAcceptingTasks(false);
+
+        // the slave is no longer idle, so its warm pool (if any) needs another one
+        AbstractCloudSlave node = getNode();
+        if (node instanceof ECSSlave) {
+            ECSWarmPool.slaveTaken((ECSSlave) node);
+        }
     }
 
     @Override
@@ -0,0 +1,69 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import jenkins.model.NodeListener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notifies provisioning about ECS slaves coming online, so that it does not need to poll their computers.
+ *
+ * The future of a slave is completed as soon as its computer is online and failed as soon as its node is removed.
+ */
+@Extension
+public class ECSComputerListener extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    private static final ConcurrentHashMap<String, CompletableFuture<ECSSlave>> pendingSlaves = new ConcurrentHashMap<>();
+
+    /**
+     * Starts listening for the given slave to come online; call once the slave was added to Jenkins, so that
+     * nothing is left behind if adding it fails.
+     */
+    static CompletableFuture<ECSSlave> waitForOnline(ECSSlave slave) {
+        final String nodeName = slave.getNodeName();
+        final CompletableFuture<ECSSlave> online = pendingSlaves.computeIfAbsent(nodeName, key -> new CompletableFuture<>());
+        online.whenComplete((s, e) -> pendingSlaves.remove(nodeName, online));
+        // the slave might already be connected
+        final Computer computer = slave.getComputer();
+        if (computer != null && computer.isOnline()) {
+            online.complete(slave);
+        }
+        return online;
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        final CompletableFuture<ECSSlave> online = pendingSlaves.get(c.getName());
+        if (online != null) {
+            final ECSSlave slave = ECSSlaveRegistry.getSlave(c.getName());
+            if (slave != null) {
+                LOGGER.log(Level.FINE, "Slave {0} is online", slave.getNodeName());
+                online.complete(slave);
+            }
+        }
+    }
+
+    @Extension
+    public static class SlaveRemovalListener extends NodeListener {
+
+        @Override
+        protected void onDeleted(Node node) {
+            if (node instanceof ECSSlave) {
+                final CompletableFuture<ECSSlave> online = pendingSlaves.get(node.getNodeName());
+                if (online != null) {
+                    online.completeExceptionally(new IllegalStateException(
+                            "Slave " + node.getNodeName() + " - Node was deleted"));
+                }
+            }
+        }
+    }
+}
@@ -27,16 +27,14 @@ package com.cloudbees.jenkins.plugins.amazonecs;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.amazonaws.services.autoscaling.AmazonAutoScaling;
-import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -49,14 +47,10 @@ import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
 import hudson.Extension;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
-import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.Node;
-import hudson.slaves.Cloud;
-import hudson.slaves.JNLPLauncher;
 import hudson.slaves.NodeProvisioner;
 import hudson.util.ListBoxModel;
-import jenkins.model.Jenkins;
 
 /**
  * @author <a href="mailto:nicolas.deloof@gmail.com">Nicolas De Loof</a>
@@ -65,6 +59,11 @@ public class ECSEC2Cloud extends ECSCloud {
 
     private String autoScalingGroup;
 
+    @CheckForNull
+    private ECSScaleInPolicy scaleInPolicy;
+
+    private boolean consolidateInstances;
+
     /**
      * Start auto scaling ECS clusters as part of Jenkins initialization.
      */
@@ -82,16 +81,7 @@ public class ECSEC2Cloud extends ECSCloud {
                     }
                 });
 
-        final Jenkins jenkins = Jenkins.get();
-        Executors.newSingleThreadScheduledExecutor().scheduleWithFixedDelay(() -> {
-            // Start auto scale in
-            for (final Cloud c : jenkins.clouds) {
-                if (c instanceof ECSEC2Cloud) {
-                    final ECSEC2Cloud ecsCloud = (ECSEC2Cloud) c;
-                    ecsCloud.startAutoScaleIn();
-                }
-            }
-        }, 0, 60, TimeUnit.SECONDS);
+        ECSScaleInScheduler.start();
     }
 
     @DataBoundConstructor
@@ -110,7 +100,8 @@ public class ECSEC2Cloud extends ECSCloud {
 
         LOGGER.log(Level.INFO, "Create ECS cloud {0} on ECS cluster {1} on the region {2}", new Object[]{name, cluster, regionName});
 
-        startAutoScaleIn();
+        // start the scale in once this cloud is added to Jenkins
+        ECSScaleInScheduler.reconcileSoon();
     }
 
     public String getCredentialsId() {
@@ -175,38 +166,42 @@ public class ECSEC2Cloud extends ECSCloud {
     }
 
     /**
-     * Utility methods
+     * @return the scale in policy, hourly billing for clouds configured before scale in policies existed
      */
-
-    private void startAutoScaleIn() {
-        if (!StringUtils.isEmpty(autoScalingGroup) && !StringUtils.isEmpty(getCluster())) {
-            LOGGER.log(Level.FINE, "Schedule scale in check for ECS cluster {0} (using auto scaling group {1})", new Object[]{getCluster(), autoScalingGroup});
-            ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-            scheduledExecutorService.schedule(
-                    new ECSClusterScaleIn(getEcsService(), getCluster(), autoScalingGroup),
-                    0, TimeUnit.SECONDS
-            );
-            scheduledExecutorService.shutdown();
+    public ECSScaleInPolicy getScaleInPolicy() {
+        if (scaleInPolicy == null) {
+            return new ECSHourlyBillingScaleInPolicy(ECSHourlyBillingScaleInPolicy.DEFAULT_IDLE_SECONDS_BEFORE_NEXT_HOUR,
+                    ECSHourlyBillingScaleInPolicy.DEFAULT_MAX_UPTIME_HOURS);
         }
+        return scaleInPolicy;
+    }
+
+    @DataBoundSetter
+    public void setScaleInPolicy(@CheckForNull ECSScaleInPolicy scaleInPolicy) {
+        this.scaleInPolicy = scaleInPolicy;
+    }
+
+    /**
+     * @return whether the slaves are packed on as few instances as possible, see {@link ECSClusterConsolidation}
+     */
+    public boolean isConsolidateInstances() {
+        return consolidateInstances;
+    }
+
+    @DataBoundSetter
+    public void setConsolidateInstances(boolean consolidateInstances) {
+        this.consolidateInstances = consolidateInstances;
     }
 
+    /**
+     * Utility methods
+     */
+
     @Override
     public boolean canProvision(Label label) {
         return getTemplate(label) != null;
     }
 
-    private ECSTaskTemplate getTemplate(Label label) {
-        if (label == null || templates == null) {
-            return null;
-        }
-        for (ECSTaskTemplate t : templates) {
-            if (label.matches(t.getLabelSet())) {
-                return t;
-            }
-        }
-        return null;
-    }
-
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
         try {
@@ -218,7 +213,7 @@ public class ECSEC2Cloud extends ECSCloud {
             for (int i = 1; i <= excessWorkload; i++) {
                 LOGGER.log(Level.INFO, "Will provision {0}, for label: {1}", new Object[]{template.getDisplayName(), label});
 
-                r.add(new NodeProvisioner.PlannedNode(template.getDisplayName(), Computer.threadPoolForRemoting.submit(new ProvisioningCallback(template, label)), 1));
+                r.add(new NodeProvisioner.PlannedNode(template.getDisplayName(), startProvisioning(template, label), 1));
             }
             return r;
         } catch (Exception e) {
@@ -227,6 +222,10 @@ public class ECSEC2Cloud extends ECSCloud {
         }
     }
 
+    CompletableFuture<Node> startProvisioning(ECSTaskTemplate template, @Nullable Label label) {
+        return new ProvisioningCallback(template, label).start();
+    }
+
     void deleteTask(String taskArn, String clusterArn) {
         getEcsService().deleteTask(taskArn, clusterArn);
     }
@@ -234,36 +233,16 @@ public class ECSEC2Cloud extends ECSCloud {
     private class ProvisioningCallback extends ECSProvisioningCallback {
 
         ProvisioningCallback(ECSTaskTemplate template, @Nullable Label label) {
-            super(template, label);
+            super(ECSEC2Cloud.this, template, label);
         }
 
         @Override
-        public Node call() throws Exception {
-            final ECSSlave slave;
-
-            Date now = new Date();
-            Date timeout = new Date(now.getTime() + 1000 * slaveTimeoutInSeconds);
-
-            synchronized (getCluster()) {
-                getEcsService().waitForSufficientClusterResources(timeout, template, getCluster(), autoScalingGroup);
-            }
-
-            String uniq = Long.toHexString(System.nanoTime());
-            slave = new ECSSlave(
-                    ECSEC2Cloud.this,
-                    name + "-" + uniq,
-                    template.getRemoteFSRoot(),
-                    label == null ? null : label.toString(),
-                    new JNLPLauncher(true)
-            );
-            slave.setClusterArn(getCluster());
-            Jenkins.get().addNode(slave);
-            LOGGER.log(Level.INFO, "Created Slave: {0}", slave.getNodeName());
-
-            runTask(getEcsService(), slave, getCluster(), getJenkinsUrl(), getTunnel());
-            waitForSlaveToBeOnline(slave, now, timeout);
-
-            return slave;
+        CompletableFuture<Boolean> reserveResources() {
+            return getEcsService().reserveClusterResources(template, getCluster(), autoScalingGroup, this)
+                    .thenApply(reserved -> {
+                        reservation = reserved;
+                        return reserved != null;
+                    });
         }
 
     }
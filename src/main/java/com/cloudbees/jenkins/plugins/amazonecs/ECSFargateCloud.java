@@ -32,7 +32,6 @@ import hudson.Extension;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.model.*;
-import hudson.slaves.JNLPLauncher;
 import hudson.slaves.NodeProvisioner;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -46,6 +45,7 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -190,18 +190,6 @@ public class ECSFargateCloud extends ECSCloud {
         return getTemplate(label) != null;
     }
 
-    private ECSTaskTemplate getTemplate(Label label) {
-        if (label == null || templates == null) {
-            return null;
-        }
-        for (ECSTaskTemplate t : templates) {
-            if (label.matches(t.getLabelSet())) {
-                return t;
-            }
-        }
-        return null;
-    }
-
     @Override
     public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
         try {
@@ -213,7 +201,7 @@ public class ECSFargateCloud extends ECSCloud {
             for (int i = 1; i <= excessWorkload; i++) {
 				LOGGER.log(Level.INFO, "Will provision {0}, for label: {1}", new Object[]{template.getDisplayName(), label} );
 
-                r.add(new NodeProvisioner.PlannedNode(template.getDisplayName(), Computer.threadPoolForRemoting.submit(new ProvisioningCallback(template, label)), 1));
+                r.add(new NodeProvisioner.PlannedNode(template.getDisplayName(), startProvisioning(template, label), 1));
             }
             return r;
         } catch (Exception e) {
@@ -222,6 +210,10 @@ public class ECSFargateCloud extends ECSCloud {
         }
     }
 
+    CompletableFuture<Node> startProvisioning(ECSTaskTemplate template, @Nullable Label label) {
+        return new ProvisioningCallback(template, label).start();
+    }
+
     void deleteTask(String taskArn, String clusterArn) {
         getEcsService().deleteTask(taskArn, clusterArn);
     }
@@ -229,32 +221,13 @@ public class ECSFargateCloud extends ECSCloud {
     private class ProvisioningCallback extends ECSProvisioningCallback {
 
         ProvisioningCallback(ECSTaskTemplate template, @Nullable Label label) {
-            super(template, label);
+            super(ECSFargateCloud.this, template, label);
         }
 
         @Override
-        public Node call() throws Exception {
-            final ECSSlave slave;
-
-            Date now = new Date();
-            Date timeout = new Date(now.getTime() + 1000 * slaveTimeoutInSeconds);
-
-            String uniq = Long.toHexString(System.nanoTime());
-            slave = new ECSSlave(
-                    ECSFargateCloud.this,
-                    name + "-" + uniq,
-                    template.getRemoteFSRoot(),
-                    label == null ? null : label.toString(),
-                    new JNLPLauncher(true)
-            );
-            slave.setClusterArn(getCluster());
-            Jenkins.get().addNode(slave);
-            LOGGER.log(Level.INFO, "Created Slave: {0}", slave.getNodeName());
-
-            runTask(getEcsService(), slave, getCluster(), jenkinsUrl, tunnel);
-            waitForSlaveToBeOnline(slave, now, timeout);
-
-            return slave;
+        CompletableFuture<Boolean> reserveResources() {
+            // Fargate provides the resources of each task on demand
+            return CompletableFuture.completedFuture(true);
         }
     }
 
@@ -0,0 +1,66 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scale in keeping a minimum of idle instances ready for new builds: drains the instances idle for some minutes
+ * beyond that minimum, the longest idle first.
+ */
+public class ECSHeadroomScaleInPolicy extends ECSScaleInPolicy {
+
+    private final int minIdleInstances;
+    private final int idleMinutes;
+
+    @DataBoundConstructor
+    public ECSHeadroomScaleInPolicy(int minIdleInstances, int idleMinutes) {
+        this.minIdleInstances = Math.max(minIdleInstances, 0);
+        this.idleMinutes = Math.max(idleMinutes, 0);
+    }
+
+    public int getMinIdleInstances() {
+        return minIdleInstances;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes;
+    }
+
+    @Override
+    public Map<String, String> getInstancesToDrain(ECSScaleInContext context) {
+        final Map<String, String> instancesToDrain = new LinkedHashMap<>();
+        int excessIdleInstances = context.getIdleInstances(0).size() - minIdleInstances;
+        final List<ContainerInstance> candidates = context.getIdleInstances(TimeUnit.MINUTES.toMillis(idleMinutes));
+        for (int i = 0; i < candidates.size() && excessIdleInstances > 0; i++, excessIdleInstances--) {
+            instancesToDrain.put(candidates.get(i).getContainerInstanceArn(),
+                    "it's idle for more than " + idleMinutes + " minutes and more than " + minIdleInstances + " instances are idle");
+        }
+        return instancesToDrain;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ECSScaleInPolicy> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.displayNameHeadroomScaleInPolicy();
+        }
+
+        public FormValidation doCheckMinIdleInstances(@QueryParameter int value) {
+            return checkNotNegative(value);
+        }
+
+        public FormValidation doCheckIdleMinutes(@QueryParameter int value) {
+            return checkNotNegative(value);
+        }
+    }
+}
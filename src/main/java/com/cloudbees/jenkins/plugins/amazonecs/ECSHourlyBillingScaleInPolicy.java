@@ -0,0 +1,74 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scale in for instances billed by the hour: drains idle instances shortly before their next billing hour starts,
+ * and recycles instances running for long. This is the scale in of clouds configured without a policy.
+ */
+public class ECSHourlyBillingScaleInPolicy extends ECSScaleInPolicy {
+
+    static final int DEFAULT_IDLE_SECONDS_BEFORE_NEXT_HOUR = 240;
+    static final int DEFAULT_MAX_UPTIME_HOURS = 10;
+
+    private final int idleSecondsBeforeNextHour;
+    private final int maxUptimeHours;
+
+    @DataBoundConstructor
+    public ECSHourlyBillingScaleInPolicy(int idleSecondsBeforeNextHour, int maxUptimeHours) {
+        this.idleSecondsBeforeNextHour = Math.min(Math.max(idleSecondsBeforeNextHour, 0), 3600);
+        this.maxUptimeHours = Math.max(maxUptimeHours, 0);
+    }
+
+    public int getIdleSecondsBeforeNextHour() {
+        return idleSecondsBeforeNextHour;
+    }
+
+    public int getMaxUptimeHours() {
+        return maxUptimeHours;
+    }
+
+    @Override
+    public Map<String, String> getInstancesToDrain(ECSScaleInContext context) {
+        final Map<String, String> instancesToDrain = new LinkedHashMap<>();
+        for (ContainerInstance instance : context.getActiveInstances()) {
+            final long upTimeInSeconds = TimeUnit.MILLISECONDS.toSeconds(context.getUptimeMillis(instance));
+            final long remainingSecondsUntilNextHour = 3600 - upTimeInSeconds % 3600;
+            if (maxUptimeHours > 0 && upTimeInSeconds > maxUptimeHours * 3600L) {
+                instancesToDrain.put(instance.getContainerInstanceArn(), "it's running for more than " + maxUptimeHours + " hours");
+            } else if (ECSScaleInContext.getTaskCount(instance) == 0 && remainingSecondsUntilNextHour < idleSecondsBeforeNextHour) {
+                instancesToDrain.put(instance.getContainerInstanceArn(), "it's idle and close to the next billing hour");
+            }
+        }
+        return instancesToDrain;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ECSScaleInPolicy> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.displayNameHourlyBillingScaleInPolicy();
+        }
+
+        public FormValidation doCheckIdleSecondsBeforeNextHour(@QueryParameter int value) {
+            if (value < 0 || value > 3600) {
+                return FormValidation.error("must be between 0 and 3600");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckMaxUptimeHours(@QueryParameter int value) {
+            return checkNotNegative(value);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Keeps the connection pool usage of an AWS client, as reported by the SDK with the metrics of its last request.
+ */
+class ECSHttpClientPoolMonitor extends RequestMetricCollector {
+
+    private volatile int leased;
+    private volatile int available;
+    private volatile int pending;
+    private volatile long updatedAt;
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        final AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+        if (metrics == null) {
+            return;
+        }
+        final TimingInfo timingInfo = metrics.getTimingInfo();
+        final Number leasedCount = timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount.name());
+        if (leasedCount == null) {
+            return;
+        }
+        leased = leasedCount.intValue();
+        available = getCounter(timingInfo, AWSRequestMetrics.Field.HttpClientPoolAvailableCount);
+        pending = getCounter(timingInfo, AWSRequestMetrics.Field.HttpClientPoolPendingCount);
+        updatedAt = System.currentTimeMillis();
+    }
+
+    private static int getCounter(TimingInfo timingInfo, AWSRequestMetrics.Field field) {
+        final Number counter = timingInfo.getCounter(field.name());
+        return counter == null ? 0 : counter.intValue();
+    }
+
+    @Override
+    public String toString() {
+        if (updatedAt == 0) {
+            return "no requests yet";
+        }
+        return String.format("%d leased, %d available, %d pending connections (%d s ago)",
+                leased, available, pending, (System.currentTimeMillis() - updatedAt) / 1000);
+    }
+}
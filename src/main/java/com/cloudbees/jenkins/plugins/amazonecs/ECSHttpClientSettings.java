@@ -0,0 +1,91 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.ClientConfiguration;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client settings of the AWS clients of a cloud. Values of 0 or less keep the default of the SDK.
+ */
+public class ECSHttpClientSettings extends AbstractDescribableImpl<ECSHttpClientSettings> {
+
+    private final int maxConnections;
+    private final int connectionTtlSeconds;
+    private final int requestTimeoutSeconds;
+    private final int socketTimeoutSeconds;
+    private final boolean tcpKeepAlive;
+    private final boolean useGzip;
+
+    @DataBoundConstructor
+    public ECSHttpClientSettings(int maxConnections, int connectionTtlSeconds, int requestTimeoutSeconds,
+                                 int socketTimeoutSeconds, boolean tcpKeepAlive, boolean useGzip) {
+        this.maxConnections = maxConnections;
+        this.connectionTtlSeconds = connectionTtlSeconds;
+        this.requestTimeoutSeconds = requestTimeoutSeconds;
+        this.socketTimeoutSeconds = socketTimeoutSeconds;
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.useGzip = useGzip;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionTtlSeconds() {
+        return connectionTtlSeconds;
+    }
+
+    public int getRequestTimeoutSeconds() {
+        return requestTimeoutSeconds;
+    }
+
+    public int getSocketTimeoutSeconds() {
+        return socketTimeoutSeconds;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public boolean isUseGzip() {
+        return useGzip;
+    }
+
+    void apply(ClientConfiguration clientConfiguration) {
+        if (maxConnections > 0) {
+            clientConfiguration.setMaxConnections(maxConnections);
+        }
+        if (connectionTtlSeconds > 0) {
+            clientConfiguration.setConnectionTTL(TimeUnit.SECONDS.toMillis(connectionTtlSeconds));
+        }
+        if (requestTimeoutSeconds > 0) {
+            clientConfiguration.setRequestTimeout((int) TimeUnit.SECONDS.toMillis(requestTimeoutSeconds));
+        }
+        if (socketTimeoutSeconds > 0) {
+            clientConfiguration.setSocketTimeout((int) TimeUnit.SECONDS.toMillis(socketTimeoutSeconds));
+        }
+        clientConfiguration.setUseTcpKeepAlive(tcpKeepAlive);
+        clientConfiguration.setUseGzip(useGzip);
+    }
+
+    /**
+     * @return identifies the clients built with these settings
+     */
+    String getKey() {
+        return maxConnections + "/" + connectionTtlSeconds + "/" + requestTimeoutSeconds + "/" + socketTimeoutSeconds
+                + "/" + tcpKeepAlive + "/" + useGzip;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ECSHttpClientSettings> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.displayNameHttpClientSettings();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scale in for instances billed by the second: drains every instance which is idle for some minutes.
+ */
+public class ECSIdleScaleInPolicy extends ECSScaleInPolicy {
+
+    private final int idleMinutes;
+
+    @DataBoundConstructor
+    public ECSIdleScaleInPolicy(int idleMinutes) {
+        this.idleMinutes = Math.max(idleMinutes, 0);
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes;
+    }
+
+    @Override
+    public Map<String, String> getInstancesToDrain(ECSScaleInContext context) {
+        final Map<String, String> instancesToDrain = new LinkedHashMap<>();
+        for (ContainerInstance instance : context.getIdleInstances(TimeUnit.MINUTES.toMillis(idleMinutes))) {
+            instancesToDrain.put(instance.getContainerInstanceArn(), "it's idle for more than " + idleMinutes + " minutes");
+        }
+        return instancesToDrain;
+    }
+
+    @Extension(ordinal = 100)
+    public static class DescriptorImpl extends Descriptor<ECSScaleInPolicy> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.displayNameIdleScaleInPolicy();
+        }
+
+        public FormValidation doCheckIdleMinutes(@QueryParameter int value) {
+            return checkNotNegative(value);
+        }
+    }
+}
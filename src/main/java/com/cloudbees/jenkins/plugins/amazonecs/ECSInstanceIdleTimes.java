@@ -0,0 +1,54 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Since when the container instances of an account and region are without tasks, as seen by the scale in passes.
+ */
+class ECSInstanceIdleTimes {
+
+    /**
+     * Instances not seen in this time are forgotten, e.g. because they were terminated.
+     */
+    private static final long EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final ConcurrentHashMap<String, IdleTime> idleTimes = new ConcurrentHashMap<>();
+
+    /**
+     * Records whether the given instances are idle now.
+     *
+     * @return since when the idle ones among the given instances are idle, by container instance ARN
+     */
+    Map<String, Long> update(Collection<ContainerInstance> instances, long now) {
+        idleTimes.values().removeIf(idleTime -> now - idleTime.seenAt > EXPIRY_MILLIS);
+
+        final Map<String, Long> result = new HashMap<>();
+        for (ContainerInstance instance : instances) {
+            final String instanceArn = instance.getContainerInstanceArn();
+            if (ECSScaleInContext.getTaskCount(instance) == 0) {
+                final IdleTime idleTime = idleTimes.computeIfAbsent(instanceArn, key -> new IdleTime(now));
+                idleTime.seenAt = now;
+                result.put(instanceArn, idleTime.since);
+            } else {
+                idleTimes.remove(instanceArn);
+            }
+        }
+        return result;
+    }
+
+    private static class IdleTime {
+        private final long since;
+        private volatile long seenAt;
+
+        IdleTime(long since) {
+            this.since = since;
+            this.seenAt = since;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launch times of the EC2 instances of an account and region. Launch times never change, so each instance
+ * is described once, together with the other instances it was first asked about.
+ */
+class ECSInstanceLaunchTimes {
+
+    /**
+     * Instance ids per DescribeInstances call; the instances are selected with a filter, which unlike a list
+     * of instance ids does not fail the call for terminated instances.
+     */
+    private static final int DESCRIBE_CHUNK_SIZE = 200;
+
+    /**
+     * Instances shutting down or terminated are not described, as they are not running anymore.
+     */
+    private static final Filter RUNNING_STATES = new Filter("instance-state-name", Arrays.asList("pending", "running"));
+
+    /**
+     * Launch times not asked for in this time are forgotten, e.g. because the instance was terminated.
+     */
+    private static final long EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final ECSService ecsService;
+    private final ConcurrentHashMap<String, LaunchTime> launchTimes = new ConcurrentHashMap<>();
+
+    ECSInstanceLaunchTimes(ECSService ecsService) {
+        this.ecsService = ecsService;
+    }
+
+    /**
+     * @return the launch times of the given instances by instance id, without the instances which do not exist
+     * or were not running when they were first asked about
+     */
+    Map<String, Date> get(Collection<String> instanceIds) {
+        final long now = System.currentTimeMillis();
+        launchTimes.values().removeIf(launchTime -> now - launchTime.usedAt > EXPIRY_MILLIS);
+
+        final List<String> unknown = new ArrayList<>();
+        for (String instanceId : instanceIds) {
+            if (!launchTimes.containsKey(instanceId)) {
+                unknown.add(instanceId);
+            }
+        }
+        for (int i = 0; i < unknown.size(); i += DESCRIBE_CHUNK_SIZE) {
+            describe(unknown.subList(i, Math.min(i + DESCRIBE_CHUNK_SIZE, unknown.size())));
+        }
+
+        final Map<String, Date> result = new HashMap<>();
+        for (String instanceId : instanceIds) {
+            final LaunchTime launchTime = launchTimes.get(instanceId);
+            if (launchTime != null) {
+                launchTime.usedAt = now;
+                result.put(instanceId, launchTime.launchTime);
+            }
+        }
+        return result;
+    }
+
+    private void describe(List<String> instanceIds) {
+        final AmazonEC2 client = ecsService.getAmazonEC2Client();
+        String nextToken = null;
+        do {
+            final DescribeInstancesResult result = client.describeInstances(new DescribeInstancesRequest()
+                    .withFilters(new Filter("instance-id", instanceIds), RUNNING_STATES)
+                    .withNextToken(nextToken));
+            for (Reservation reservation : result.getReservations()) {
+                for (Instance instance : reservation.getInstances()) {
+                    if (instance.getLaunchTime() != null) {
+                        launchTimes.put(instance.getInstanceId(), new LaunchTime(instance.getLaunchTime()));
+                    }
+                }
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+    }
+
+    private static class LaunchTime {
+        private final Date launchTime;
+        private volatile long usedAt = System.currentTimeMillis();
+
+        LaunchTime(Date launchTime) {
+            this.launchTime = launchTime;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in milliseconds with a bounded relative error, in the manner of an HDR histogram:
+ * every power of two is split in 16 buckets, so percentiles are accurate to about 6%, with a fixed footprint
+ * of 448 counters for values up to 2^31 ms.
+ *
+ * Percentiles are reported over a sliding window: values are recorded into the current interval, which
+ * replaces the previous one every {@code .windowMinutes} (default 15), and both are reported together.
+ */
+class ECSLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (31 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(
+            Long.getLong(ECSLatencyHistogram.class.getName() + ".windowMinutes", 15));
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private volatile Interval current = new Interval(System.currentTimeMillis());
+    private volatile Interval previous = new Interval(0);
+
+    void record(long millis) {
+        rotate();
+        current.record(Math.max(0, Math.min(millis, Integer.MAX_VALUE)));
+        totalCount.incrementAndGet();
+    }
+
+    /**
+     * @return count, mean, max and p50/p95/p99 over the window, and the count since startup
+     */
+    Map<String, Long> getStatistics() {
+        rotate();
+        final Interval current = this.current;
+        final Interval previous = this.previous;
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = current.counts.get(i) + previous.counts.get(i);
+            count += counts[i];
+        }
+        final long max = Math.max(current.max.get(), previous.max.get());
+        final Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("count", count);
+        statistics.put("mean", count == 0 ? 0 : (current.sum.get() + previous.sum.get()) / count);
+        statistics.put("p50", getPercentile(counts, count, 50, max));
+        statistics.put("p95", getPercentile(counts, count, 95, max));
+        statistics.put("p99", getPercentile(counts, count, 99, max));
+        statistics.put("max", max);
+        statistics.put("totalCount", totalCount.get());
+        return statistics;
+    }
+
+    private void rotate() {
+        final Interval current = this.current;
+        final long now = System.currentTimeMillis();
+        if (now - current.startedAt < WINDOW_MILLIS) {
+            return;
+        }
+        synchronized (this) {
+            if (this.current == current) {
+                // after a quiet period longer than the window, the current interval is stale too
+                previous = now - current.startedAt < 2 * WINDOW_MILLIS ? current : new Interval(0);
+                this.current = new Interval(now);
+            }
+        }
+    }
+
+    private static long getPercentile(long[] counts, long count, double percentile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value counted in the given bucket
+     */
+    static long getHighestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static class Interval {
+        private final long startedAt;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Interval(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        void record(long value) {
+            counts.incrementAndGet(getBucket(value));
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Serves the metrics of the plugin as JSON at {@code /ecs-metrics/}, for monitoring and alerting:
+ * the provisioning phase latencies per cloud and template, and the AWS API calls and rate limiter waits per account.
+ */
+@Extension
+public class ECSMetricsAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Amazon ECS metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ecs-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        final JSONObject json = new JSONObject()
+                .element("provisioning", ECSProvisioningMetrics.getStatistics())
+                .element("apiCalls", AWSClientsManager.getApiStatistics())
+                .element("rateLimits", AWSClientsManager.getRateLimiterStatistics());
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString(2));
+    }
+}
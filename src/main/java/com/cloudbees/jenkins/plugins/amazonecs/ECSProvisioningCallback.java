@@ -1,7 +1,12 @@
 package com.cloudbees.jenkins.plugins.amazonecs;
 
+import hudson.AbortException;
+import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.Node;
+import hudson.slaves.JNLPLauncher;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
 
@@ -12,37 +17,237 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.concurrent.Callable;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public abstract class ECSProvisioningCallback implements Callable<Node> {
+/**
+ * Provisions a single slave as a state machine (capacity &rarr; register &rarr; run &rarr; await online).
+ *
+ * The states are driven by a small shared scheduler. Its threads never wait: AWS is called with the asynchronous
+ * clients, the node is added to Jenkins (which takes the Jenkins lock and saves the configuration) on the remoting
+ * thread pool, and a step that has to wait reschedules itself instead of sleeping, so the number of threads does not
+ * depend on the number of slaves being provisioned. The slave timeout of the cloud applies to the provisioning as a
+ * whole, whatever state it is in.
+ */
+public abstract class ECSProvisioningCallback implements Runnable {
 
     protected static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
 
+    private static final ScheduledExecutorService SCHEDULER;
+
+    static {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                Integer.getInteger(ECSProvisioningCallback.class.getName() + ".threads", 2),
+                new NamingThreadFactory(new DaemonThreadFactory(), "ECSProvisioning"));
+        // the timeouts of completed provisionings must not pile up in the queue
+        scheduler.setRemoveOnCancelPolicy(true);
+        SCHEDULER = scheduler;
+    }
+
+    private static final long CAPACITY_CHECK_INTERVAL_MILLIS = 10000;
+
+    enum State {
+        /** waiting for sufficient resources to run the slave task */
+        CAPACITY,
+        /** registering the slave node in Jenkins */
+        REGISTER,
+        /** starting the slave task in ECS */
+        RUN,
+        /** waiting for the slave to connect */
+        AWAIT_ONLINE
+    }
+
+    protected final ECSCloud cloud;
     protected final ECSTaskTemplate template;
     @CheckForNull
     protected Label label;
+    /**
+     * Resources reserved for the slave task by {@link #reserveResources()}, if any.
+     */
+    @CheckForNull
+    protected volatile ECSClusterCapacity.Reservation reservation;
+
+    private final Date started = new Date();
+    private final Date timeout;
+    private final CompletableFuture<Node> future = new CompletableFuture<>();
+    private final ECSProvisioningMetrics metrics;
+
+    private volatile long stateEnteredAt = started.getTime();
+
+    private volatile State state = State.CAPACITY;
+    @CheckForNull
+    private volatile ECSSlave slave;
+    @CheckForNull
+    private volatile CompletableFuture<ECSSlave> online;
 
-    ECSProvisioningCallback(ECSTaskTemplate template, @Nullable Label label) {
+    ECSProvisioningCallback(ECSCloud cloud, ECSTaskTemplate template, @Nullable Label label) {
+        this.cloud = cloud;
         this.template = template;
         this.label = label;
+        this.timeout = new Date(started.getTime() + 1000L * cloud.getSlaveTimeoutInSeconds());
+        this.metrics = ECSProvisioningMetrics.get(cloud, template);
     }
 
-    void runTask(ECSService ecsService, ECSSlave slave, String cluster, String jenkinsUrl, String tunnel) throws IOException {
+    /**
+     * Starts provisioning.
+     *
+     * @return completed with the slave once it is online
+     */
+    CompletableFuture<Node> start() {
+        final ScheduledFuture<?> timeoutCheck = SCHEDULER.schedule(this::timeOut, timeout.getTime() - started.getTime(), TimeUnit.MILLISECONDS);
+        future.whenComplete((node, e) -> timeoutCheck.cancel(false));
+        SCHEDULER.execute(this);
+        return future;
+    }
+
+    /**
+     * Checks once, without blocking the calling thread, whether the slave task can be run now, reserving the
+     * resources it needs.
+     *
+     * @return completed with whether the slave task can be run now
+     */
+    abstract CompletableFuture<Boolean> reserveResources();
+
+    @Override
+    public void run() {
+        if (future.isDone()) {
+            return;
+        }
+        ECSApiMetrics.withCaller(cloud.name + '/' + state.name().toLowerCase(Locale.ENGLISH), this::step);
+    }
+
+    private void step() {
         try {
-            String taskDefinitionArn = ecsService.registerTemplate(slave.getCloud(), template, cluster);
-            String taskArn = ecsService.runEcsTask(slave, template, cluster, getDockerRunCommand(slave, jenkinsUrl, tunnel), taskDefinitionArn);
-            LOGGER.log(Level.INFO, "Slave {0} - Slave Task Started : {1}",
-                    new Object[] {slave.getNodeName(), taskArn});
-            slave.setTaskArn(taskArn);
-        } catch (Exception ex) {
-            LOGGER.log(Level.SEVERE, String.format("Slave %s - Cannot create ECS Task", slave.getNodeName()), ex);
-            Jenkins.get().removeNode(slave);
-            throw ex;
+            switch (state) {
+                case CAPACITY:
+                    reserveResources().whenComplete((reserved, e) -> {
+                        if (e != null) {
+                            fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                        } else if (reserved && future.isDone()) {
+                            // timed out while the resources were being reserved
+                            final ECSClusterCapacity.Reservation reservation = this.reservation;
+                            if (reservation != null) {
+                                reservation.release();
+                            }
+                        } else if (reserved) {
+                            advance(State.REGISTER);
+                        } else {
+                            SCHEDULER.schedule(this, CAPACITY_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                        }
+                    });
+                    break;
+                case REGISTER:
+                    Computer.threadPoolForRemoting.submit(() -> {
+                        try {
+                            slave = createSlave();
+                            if (future.isDone()) {
+                                // timed out while the node was being added
+                                removeNode(slave);
+                            } else {
+                                advance(State.RUN);
+                            }
+                        } catch (Exception e) {
+                            fail(e);
+                        }
+                    });
+                    break;
+                case RUN:
+                    runTask(slave);
+                    break;
+                case AWAIT_ONLINE:
+                    awaitSlaveOnline(slave);
+                    break;
+            }
+        } catch (Exception e) {
+            fail(e);
         }
     }
 
+    private void advance(State next) {
+        stateCompleted();
+        state = next;
+        SCHEDULER.execute(this);
+    }
+
+    private void stateCompleted() {
+        final long now = System.currentTimeMillis();
+        metrics.phaseCompleted(state, now - stateEnteredAt);
+        stateEnteredAt = now;
+    }
+
+    private void timeOut() {
+        if (future.isDone()) {
+            return;
+        }
+        final String msg;
+        switch (state) {
+            case CAPACITY:
+                msg = MessageFormat.format("Timeout while waiting for sufficient resources: {0} cpu units, {1}mb free memory", template.getCpu(), template.getMemoryConstraint());
+                break;
+            case AWAIT_ONLINE:
+                msg = MessageFormat.format("ECS Slave {0} (ecs task {1}) not connected since {2}",
+                        slave.getNodeName(), slave.getTaskArn(), started);
+                break;
+            default:
+                msg = MessageFormat.format("Timeout while provisioning a slave of template {0} ({1} since {2})",
+                        template.getTemplateName(), state.name().toLowerCase(Locale.ENGLISH), new Date(stateEnteredAt));
+                break;
+        }
+        LOGGER.log(Level.WARNING, msg);
+        fail(new AbortException(msg));
+    }
+
+    private ECSSlave createSlave() throws Exception {
+        String uniq = Long.toHexString(System.nanoTime());
+        ECSSlave slave = new ECSSlave(
+                cloud,
+                cloud.name + "-" + uniq,
+                template.getRemoteFSRoot(),
+                label == null ? template.getLabel() : label.toString(),
+                new JNLPLauncher(true)
+        );
+        slave.setClusterArn(cloud.getCluster());
+        slave.setTemplateName(template.getTemplateName());
+        Jenkins.get().addNode(slave);
+        // the task is only started later on, so the slave cannot have connected yet
+        online = ECSComputerListener.waitForOnline(slave);
+        LOGGER.log(Level.INFO, "Created Slave: {0}", slave.getNodeName());
+        return slave;
+    }
+
+    private void runTask(ECSSlave slave) {
+        final ECSService ecsService = cloud.getEcsService();
+        ecsService.launchTask(slave, template, cloud.getCluster(), getDockerRunCommand(slave, cloud.getJenkinsUrl(), cloud.getTunnel()), reservation)
+                .whenComplete((taskArn, ex) -> {
+                    if (ex == null && future.isDone()) {
+                        // timed out while the task was being started
+                        LOGGER.log(Level.INFO, "Slave {0} - Stopping task {1} of a failed provisioning", new Object[] {slave.getNodeName(), taskArn});
+                        ecsService.deleteTask(taskArn, cloud.getCluster());
+                    } else if (ex == null) {
+                        LOGGER.log(Level.INFO, "Slave {0} - Slave Task Started : {1}",
+                                new Object[] {slave.getNodeName(), taskArn});
+                        final ECSClusterCapacity.Reservation reservation = this.reservation;
+                        if (reservation != null) {
+                            reservation.placed();
+                        }
+                        advance(State.AWAIT_ONLINE);
+                    } else {
+                        final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        LOGGER.log(Level.SEVERE, String.format("Slave %s - Cannot create ECS Task", slave.getNodeName()), cause);
+                        // the cached task definition might be the culprit (e.g. deregistered in the meantime)
+                        ecsService.evictTaskDefinition(cloud, template);
+                        fail(cause);
+                    }
+                });
+    }
+
     private Collection<String> getDockerRunCommand(ECSSlave slave, String jenkinsUrl, String tunnel) {
         Collection<String> command = new ArrayList<>();
         command.add("-url");
@@ -56,27 +261,45 @@ public abstract class ECSProvisioningCallback implements Callable<Node> {
         return command;
     }
 
-    void waitForSlaveToBeOnline(ECSSlave slave, Date now, Date timeout) throws InterruptedException, IOException {
-        while (timeout.after(new Date())) {
-            if (slave.getComputer() == null) {
-                throw new IllegalStateException(
-                    "Slave " + slave.getNodeName() + " - Node was deleted, computer is null");
-            }
-            if (slave.getComputer().isOnline()) {
-                break;
+    private void awaitSlaveOnline(ECSSlave slave) {
+        LOGGER.log(Level.FINE, "Waiting for slave {0} (ecs task {1}) to connect since {2}.",
+            new Object[] {slave.getNodeName(), slave.getTaskArn(), started});
+        // fail right away if the task stops before the slave connects
+        cloud.getEcsService().getTaskWatcher().watch(slave, online);
+        online.whenComplete((s, ex) -> {
+            if (ex == null) {
+                LOGGER.log(Level.INFO, "ECS Slave " + slave.getNodeName() + " (ecs task {0}) connected", slave.getTaskArn());
+                if (future.complete(slave)) {
+                    stateCompleted();
+                    metrics.provisioned(System.currentTimeMillis() - started.getTime());
+                }
+            } else {
+                fail(ex);
             }
-            LOGGER.log(Level.FINE, "Waiting for slave {0} (ecs task {1}) to connect since {2}.",
-                new Object[] {slave.getNodeName(), slave.getTaskArn(), now});
-            Thread.sleep(1000);
+        });
+    }
+
+    private void fail(Throwable cause) {
+        if (!future.completeExceptionally(cause)) {
+            return;
         }
-        if (!slave.getComputer().isOnline()) {
-            final String msg = MessageFormat.format("ECS Slave {0} (ecs task {1}) not connected since {2} seconds",
-                slave.getNodeName(), slave.getTaskArn(), now);
-            LOGGER.log(Level.WARNING, msg);
-            Jenkins.get().removeNode(slave);
-            throw new IllegalStateException(msg);
+        metrics.phaseFailed(state);
+        final ECSClusterCapacity.Reservation reservation = this.reservation;
+        if (reservation != null && state.compareTo(State.AWAIT_ONLINE) < 0) {
+            // the task was never started
+            reservation.release();
         }
+        final ECSSlave slave = this.slave;
+        if (slave != null) {
+            Computer.threadPoolForRemoting.submit(() -> removeNode(slave));
+        }
+    }
 
-        LOGGER.log(Level.INFO, "ECS Slave " + slave.getNodeName() + " (ecs task {0}) connected", slave.getTaskArn());
+    private static void removeNode(ECSSlave slave) {
+        try {
+            Jenkins.get().removeNode(slave);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to remove slave " + slave.getNodeName(), e);
+        }
     }
 }
@@ -0,0 +1,107 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Latencies of the phases of slave provisioning, per cloud and template, so that slow slave starts can be
+ * attributed to waiting for capacity, registering the node, running the task or the agent connecting.
+ *
+ * The metrics of a template are dropped once nothing has been recorded for it for a full latency window, e.g.
+ * because the template or its cloud was removed or renamed.
+ */
+class ECSProvisioningMetrics {
+
+    /**
+     * Metrics by cloud name and template name.
+     */
+    private static final ConcurrentHashMap<List<String>, ECSProvisioningMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final List<String> key;
+    private final Map<ECSProvisioningCallback.State, ECSLatencyHistogram> phases = new EnumMap<>(ECSProvisioningCallback.State.class);
+    private final Map<ECSProvisioningCallback.State, AtomicLong> failures = new EnumMap<>(ECSProvisioningCallback.State.class);
+    private final ECSLatencyHistogram total = new ECSLatencyHistogram();
+    private volatile long recordedAt = System.currentTimeMillis();
+
+    private ECSProvisioningMetrics(List<String> key) {
+        this.key = key;
+        for (ECSProvisioningCallback.State state : ECSProvisioningCallback.State.values()) {
+            phases.put(state, new ECSLatencyHistogram());
+            failures.put(state, new AtomicLong());
+        }
+    }
+
+    static ECSProvisioningMetrics get(ECSCloud cloud, ECSTaskTemplate template) {
+        return metrics.computeIfAbsent(Arrays.asList(cloud.name, StringUtils.defaultString(template.getTemplateName(), template.getLabel())),
+                ECSProvisioningMetrics::new);
+    }
+
+    /**
+     * Records that the given phase completed after the given time.
+     */
+    void phaseCompleted(ECSProvisioningCallback.State phase, long millis) {
+        record(registered -> registered.phases.get(phase).record(millis));
+    }
+
+    /**
+     * Records that provisioning failed in the given phase.
+     */
+    void phaseFailed(ECSProvisioningCallback.State phase) {
+        record(registered -> registered.failures.get(phase).incrementAndGet());
+    }
+
+    /**
+     * Records that a slave connected the given time after provisioning started.
+     */
+    void provisioned(long millis) {
+        record(registered -> registered.total.record(millis));
+    }
+
+    /**
+     * Records into the metrics registered for the cloud and template, which are these ones unless they were dropped
+     * while the slave was provisioned. Dropped metrics are registered again.
+     */
+    private void record(Consumer<ECSProvisioningMetrics> recording) {
+        metrics.compute(key, (k, registered) -> {
+            final ECSProvisioningMetrics target = registered == null ? this : registered;
+            recording.accept(target);
+            target.recordedAt = System.currentTimeMillis();
+            return target;
+        });
+    }
+
+    /**
+     * @return the statistics of every phase by cloud and template name
+     */
+    static Map<String, Map<String, Object>> getStatistics() {
+        final long now = System.currentTimeMillis();
+        for (List<String> key : metrics.keySet()) {
+            metrics.computeIfPresent(key, (k, templateMetrics) -> now - templateMetrics.recordedAt >= ECSLatencyHistogram.WINDOW_MILLIS ? null : templateMetrics);
+        }
+        final Map<String, Map<String, Object>> statistics = new TreeMap<>();
+        metrics.forEach((key, templateMetrics) ->
+                statistics.computeIfAbsent(key.get(0), cloudName -> new TreeMap<>()).put(key.get(1), templateMetrics.getTemplateStatistics()));
+        return statistics;
+    }
+
+    private Map<String, Object> getTemplateStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<>();
+        for (ECSProvisioningCallback.State state : ECSProvisioningCallback.State.values()) {
+            final Map<String, Long> phase = new LinkedHashMap<>(phases.get(state).getStatistics());
+            phase.put("failures", failures.get(state).get());
+            statistics.put(state.name().toLowerCase(Locale.ENGLISH), phase);
+        }
+        statistics.put("total", total.getStatistics());
+        return statistics;
+    }
+}
@@ -0,0 +1,299 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side rate limit of the AWS API calls of one account and region: a token bucket per API operation
+ * smooths bursts of RunTask and Describe* calls below the limits of the account.
+ *
+ * Asynchronous calls {@link #acquire(AmazonWebServiceRequest) acquire} their token before they are submitted,
+ * without blocking the calling thread (e.g. the provisioning scheduler), and are submitted once it is available.
+ * Synchronous calls and retries wait for their token when they are sent, on the thread sending them.
+ *
+ * Calls made {@link #inBackground(Supplier) in the background} (e.g. the cluster scale in) may only use the
+ * upper part of a bucket, so that they never take the last tokens from provisioning, whether they are
+ * asynchronous or not.
+ *
+ * The rate and burst of an operation are configured with the system properties (prefixed with the package name)
+ * {@code ECSRateLimiter.<Operation>.ratePerSecond} and {@code ECSRateLimiter.<Operation>.burst}, falling back to
+ * {@code ECSRateLimiter.ratePerSecond} (default 20) and {@code ECSRateLimiter.burst} (default 50).
+ */
+class ECSRateLimiter extends RequestHandler2 {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    private static final String PROPERTY_PREFIX = ECSRateLimiter.class.getName() + '.';
+
+    private static final double DEFAULT_RATE_PER_SECOND = getDouble(PROPERTY_PREFIX + "ratePerSecond", 20);
+    private static final int DEFAULT_BURST = Integer.getInteger(PROPERTY_PREFIX + "burst", 50);
+
+    /**
+     * Share of each bucket background calls leave to provisioning.
+     */
+    private static final double BACKGROUND_RESERVE = getDouble(PROPERTY_PREFIX + "backgroundReserve", 0.5);
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final ThreadLocal<Boolean> background = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Marks requests made in the background, as asynchronous requests are executed on other threads.
+     */
+    private static final HandlerContextKey<Boolean> BACKGROUND = new HandlerContextKey<>("ECSRateLimiter.background");
+
+    /**
+     * Marks requests whose first attempt already has its token.
+     */
+    private static final HandlerContextKey<Boolean> ACQUIRED = new HandlerContextKey<>("ECSRateLimiter.acquired");
+
+    /**
+     * Submits the asynchronous calls which waited for a token.
+     */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "ECSRateLimiter"));
+
+    private final String name;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private volatile long reportedAt = System.nanoTime();
+
+    /**
+     * @param name account and region, used in the wait time reports
+     */
+    ECSRateLimiter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the given calls with background priority.
+     */
+    static <T> T inBackground(Supplier<T> calls) {
+        final boolean previous = background.get();
+        background.set(true);
+        try {
+            return calls.get();
+        } finally {
+            background.set(previous);
+        }
+    }
+
+    static void inBackground(Runnable calls) {
+        inBackground(() -> {
+            calls.run();
+            return null;
+        });
+    }
+
+    static boolean isBackground() {
+        return background.get();
+    }
+
+    /**
+     * Keeps the priority of the calling thread for a request executed asynchronously.
+     */
+    static <R extends AmazonWebServiceRequest> R withCallerPriority(R request) {
+        if (background.get()) {
+            request.addHandlerContext(BACKGROUND, true);
+        }
+        return request;
+    }
+
+    /**
+     * Acquires the token of the first attempt of an asynchronous request, without blocking.
+     *
+     * @return a future completed once the request may be submitted, on the calling thread if a token is available
+     */
+    CompletableFuture<Void> acquire(AmazonWebServiceRequest request) {
+        final Bucket bucket = buckets.computeIfAbsent(ECSRetryPolicy.getOperation(request), Bucket::new);
+        final CompletableFuture<Void> acquired = new CompletableFuture<>();
+        acquire(bucket, isBackground(request), request, acquired, System.nanoTime(), false);
+        return acquired;
+    }
+
+    private void acquire(Bucket bucket, boolean background, AmazonWebServiceRequest request, CompletableFuture<Void> acquired,
+                         long start, boolean waited) {
+        final long waitNanos = bucket.tryAcquire(background, start, waited);
+        if (waitNanos == 0) {
+            request.addHandlerContext(ACQUIRED, true);
+            report();
+            acquired.complete(null);
+            return;
+        }
+        try {
+            SCHEDULER.schedule(() -> acquire(bucket, background, request, acquired, start, true), waitNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            acquired.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        final AmazonWebServiceRequest request = context.getRequest().getOriginalRequest();
+        if (request != null && Boolean.TRUE.equals(request.getHandlerContext(ACQUIRED))) {
+            // retries of the request take their own token
+            request.addHandlerContext(ACQUIRED, false);
+            return;
+        }
+        try {
+            buckets.computeIfAbsent(ECSRetryPolicy.getOperation(request), Bucket::new).acquire(isBackground(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for the AWS API rate limit", e);
+        }
+        report();
+    }
+
+    private static boolean isBackground(AmazonWebServiceRequest request) {
+        return background.get() || (request != null && Boolean.TRUE.equals(request.getHandlerContext(BACKGROUND)));
+    }
+
+    /**
+     * @return the wait statistics per operation since the last report
+     */
+    Map<String, String> getWaitStatistics() {
+        final Map<String, String> statistics = new TreeMap<>();
+        buckets.forEach((operation, bucket) -> statistics.put(operation, bucket.toString()));
+        return statistics;
+    }
+
+    private void report() {
+        final long now = System.nanoTime();
+        final long last = reportedAt;
+        if (now - last < REPORT_INTERVAL_NANOS) {
+            return;
+        }
+        synchronized (this) {
+            if (reportedAt != last) {
+                return;
+            }
+            reportedAt = now;
+        }
+        for (Bucket bucket : buckets.values()) {
+            final String statistics = bucket.resetStatistics();
+            if (statistics != null) {
+                LOGGER.log(Level.INFO, "AWS API rate limit of {0} {1}", new Object[] {name, statistics});
+            }
+        }
+    }
+
+    private static double getDouble(String property, double defaultValue) {
+        final String value = System.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Ignoring invalid value of {0}: {1}", new Object[] {property, value});
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Token bucket of one operation, with the statistics of the time callers waited for tokens.
+     */
+    static class Bucket {
+        private final String operation;
+        private final double tokensPerNano;
+        private final int burst;
+
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private long calls;
+        private long waits;
+        private long waitNanos;
+        private long maxWaitNanos;
+
+        Bucket(String operation) {
+            this.operation = operation;
+            this.tokensPerNano = getDouble(PROPERTY_PREFIX + operation + ".ratePerSecond", DEFAULT_RATE_PER_SECOND) / TimeUnit.SECONDS.toNanos(1);
+            this.burst = Math.max(1, Integer.getInteger(PROPERTY_PREFIX + operation + ".burst", DEFAULT_BURST));
+            this.tokens = burst;
+        }
+
+        /**
+         * Takes a token if one is available.
+         *
+         * @param start when the caller started to wait for the token
+         * @param waited whether the caller already had to wait for the token
+         * @return 0 if the token was taken, else the nanoseconds until it may be available
+         */
+        synchronized long tryAcquire(boolean background, long start, boolean waited) {
+            // background calls must leave the reserve in the bucket
+            final double required = background ? Math.max(1, Math.min(burst, burst * BACKGROUND_RESERVE + 1)) : 1;
+            final long now = refill();
+            if (tokens >= required) {
+                tokens--;
+                record(waited ? now - start : 0);
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((required - tokens) / tokensPerNano));
+        }
+
+        /**
+         * Takes a token, waiting for it on the calling thread until it is available.
+         */
+        void acquire(boolean background) throws InterruptedException {
+            final long start = System.nanoTime();
+            boolean waited = false;
+            long waitNanos;
+            while ((waitNanos = tryAcquire(background, start, waited)) > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+                waited = true;
+            }
+        }
+
+        private long refill() {
+            final long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            return now;
+        }
+
+        private void record(long waitedNanos) {
+            calls++;
+            if (waitedNanos > 0) {
+                waits++;
+                waitNanos += waitedNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitedNanos);
+            }
+        }
+
+        /**
+         * @return the statistics since the last reset, null if no call had to wait
+         */
+        synchronized String resetStatistics() {
+            final String statistics = waits == 0 ? null : toString();
+            calls = 0;
+            waits = 0;
+            waitNanos = 0;
+            maxWaitNanos = 0;
+            return statistics;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %d calls, %d waited %d ms in total (max %d ms)", operation, calls, waits,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        }
+    }
+}
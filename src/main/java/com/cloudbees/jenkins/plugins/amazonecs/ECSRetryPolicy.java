@@ -0,0 +1,100 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retry policy of the AWS clients of one account and region.
+ *
+ * Errors are retried if the SDK classifies them as retryable (throttling, clock skew, 5xx, I/O errors) with
+ * decorrelated jitter backoff; throttling starts with a longer base delay. Retries are limited per call and by
+ * a budget per API operation that refills over time, so that a throttled API is not hammered by the retries of
+ * every concurrent caller.
+ */
+class ECSRetryPolicy implements RetryPolicy.RetryCondition, RetryPolicy.BackoffStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    private static final int MAX_ERROR_RETRY = Integer.getInteger(ECSRetryPolicy.class.getName() + ".maxErrorRetry", 8);
+
+    /**
+     * Number of retries per API operation and minute.
+     */
+    private static final int RETRY_BUDGET = Integer.getInteger(ECSRetryPolicy.class.getName() + ".retryBudgetPerMinute", 120);
+
+    private static final long BASE_DELAY_MILLIS = 100;
+    private static final long THROTTLING_BASE_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 20000;
+
+    private final ConcurrentHashMap<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+
+    RetryPolicy toRetryPolicy() {
+        return new RetryPolicy(this, this, MAX_ERROR_RETRY, false);
+    }
+
+    @Override
+    public boolean shouldRetry(AmazonWebServiceRequest request, AmazonClientException exception, int retriesAttempted) {
+        if (!PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, exception, retriesAttempted)) {
+            return false;
+        }
+        final String operation = getOperation(request);
+        if (!budgets.computeIfAbsent(operation, key -> new RetryBudget()).tryAcquire()) {
+            LOGGER.log(Level.WARNING, "Retry budget of {0} exhausted, not retrying: {1}", new Object[] {operation, exception.getMessage()});
+            return false;
+        }
+        LOGGER.log(Level.FINE, "Retrying {0} (attempt {1}): {2}", new Object[] {operation, retriesAttempted + 1, exception.getMessage()});
+        return true;
+    }
+
+    /**
+     * Decorrelated jitter: each delay is random between the base delay and three times the previous delay.
+     * The previous delays of the call are not kept, they are drawn again from the same distribution.
+     */
+    @Override
+    public long delayBeforeNextRetry(AmazonWebServiceRequest request, AmazonClientException exception, int retriesAttempted) {
+        final long base = RetryUtils.isThrottlingException(exception) ? THROTTLING_BASE_DELAY_MILLIS : BASE_DELAY_MILLIS;
+        long delay = base;
+        for (int i = 0; i <= retriesAttempted; i++) {
+            delay = Math.min(MAX_DELAY_MILLIS, ThreadLocalRandom.current().nextLong(base, delay * 3 + 1));
+        }
+        return delay;
+    }
+
+    static String getOperation(AmazonWebServiceRequest request) {
+        if (request == null) {
+            return "unknown";
+        }
+        final String name = request.getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+
+    /**
+     * Token bucket holding the retries left for an operation.
+     */
+    private static class RetryBudget {
+        private static final double REFILL_PER_MILLI = RETRY_BUDGET / (double) TimeUnit.MINUTES.toMillis(1);
+
+        private double tokens = RETRY_BUDGET;
+        private long refilledAt = System.currentTimeMillis();
+
+        synchronized boolean tryAcquire() {
+            final long now = System.currentTimeMillis();
+            tokens = Math.min(RETRY_BUDGET, tokens + (now - refilledAt) * REFILL_PER_MILLI);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The active container instances of a cluster as seen by a scale in pass, evaluated by an {@link ECSScaleInPolicy}.
+ */
+public final class ECSScaleInContext {
+
+    private final String clusterArn;
+    private final List<ContainerInstance> activeInstances;
+    /**
+     * Launch times by EC2 instance id.
+     */
+    private final Map<String, Date> launchTimes;
+    /**
+     * Since when idle container instances are idle, by container instance ARN.
+     */
+    private final Map<String, Long> idleSince;
+    private final long now;
+
+    ECSScaleInContext(String clusterArn, List<ContainerInstance> activeInstances, Map<String, Date> launchTimes,
+                      Map<String, Long> idleSince, long now) {
+        this.clusterArn = clusterArn;
+        this.activeInstances = Collections.unmodifiableList(activeInstances);
+        this.launchTimes = launchTimes;
+        this.idleSince = idleSince;
+        this.now = now;
+    }
+
+    public String getClusterArn() {
+        return clusterArn;
+    }
+
+    /**
+     * @return the running, active container instances of the cluster
+     */
+    public List<ContainerInstance> getActiveInstances() {
+        return activeInstances;
+    }
+
+    /**
+     * @return the time of this scale in pass in milliseconds
+     */
+    public long getNow() {
+        return now;
+    }
+
+    @CheckForNull
+    public Date getLaunchTime(ContainerInstance instance) {
+        return launchTimes.get(instance.getEc2InstanceId());
+    }
+
+    /**
+     * @return how long the given instance is running in milliseconds
+     */
+    public long getUptimeMillis(ContainerInstance instance) {
+        final Date launchTime = getLaunchTime(instance);
+        return launchTime == null ? 0 : now - launchTime.getTime();
+    }
+
+    public static int getTaskCount(ContainerInstance instance) {
+        return instance.getPendingTasksCount() + instance.getRunningTasksCount();
+    }
+
+    /**
+     * Idle times are sampled by the scale in passes, so they are precise to the interval of the scale in.
+     *
+     * @return how long the given instance is without tasks in milliseconds, 0 if it has tasks
+     */
+    public long getIdleMillis(ContainerInstance instance) {
+        final Long since = idleSince.get(instance.getContainerInstanceArn());
+        return since == null ? 0 : now - since;
+    }
+
+    /**
+     * @return the instances without tasks since at least the given time, the longest idle first
+     */
+    public List<ContainerInstance> getIdleInstances(long minIdleMillis) {
+        final List<ContainerInstance> idleInstances = new ArrayList<>();
+        for (ContainerInstance instance : activeInstances) {
+            if (getTaskCount(instance) == 0 && idleSince.containsKey(instance.getContainerInstanceArn())
+                    && getIdleMillis(instance) >= minIdleMillis) {
+                idleInstances.add(instance);
+            }
+        }
+        idleInstances.sort(Comparator.comparingLong(this::getIdleMillis).reversed());
+        return idleInstances;
+    }
+
+    /**
+     * @param excluded instances not to count, e.g. because they are about to be drained
+     * @return the share of the registered CPU or memory, whichever is higher, reserved by tasks on the active
+     * instances, from 0 to 1
+     */
+    public double getUtilization(Collection<ContainerInstance> excluded) {
+        long registeredCpu = 0;
+        long usedCpu = 0;
+        long registeredMemory = 0;
+        long usedMemory = 0;
+        for (ContainerInstance instance : activeInstances) {
+            if (excluded.contains(instance)) {
+                continue;
+            }
+            registeredCpu += ECSClusterCapacity.getRegisteredResource(instance, "CPU");
+            usedCpu += ECSClusterCapacity.getUsedResource(instance, "CPU");
+            registeredMemory += ECSClusterCapacity.getRegisteredResource(instance, "MEMORY");
+            usedMemory += ECSClusterCapacity.getUsedResource(instance, "MEMORY");
+        }
+        return Math.max(share(usedCpu, registeredCpu), share(usedMemory, registeredMemory));
+    }
+
+    private static double share(long used, long registered) {
+        if (registered <= 0) {
+            return used > 0 ? 1 : 0;
+        }
+        return (double) used / registered;
+    }
+}
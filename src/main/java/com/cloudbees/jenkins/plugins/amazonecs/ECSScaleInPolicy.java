@@ -0,0 +1,27 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.ExtensionPoint;
+import hudson.model.AbstractDescribableImpl;
+import hudson.util.FormValidation;
+
+import java.util.Map;
+
+/**
+ * Decides which container instances of the cluster of an {@link ECSEC2Cloud} are drained by the scale in. Drained
+ * instances are terminated by a later scale in pass, once their last task has finished.
+ *
+ * Policies are chosen per cloud; further policies can be contributed by other plugins with a descriptor annotated
+ * with {@link hudson.Extension}.
+ */
+public abstract class ECSScaleInPolicy extends AbstractDescribableImpl<ECSScaleInPolicy> implements ExtensionPoint {
+
+    /**
+     * @param context the active container instances of the cluster
+     * @return the ARNs of the container instances to drain, with the reason to drain each of them
+     */
+    public abstract Map<String, String> getInstancesToDrain(ECSScaleInContext context);
+
+    static FormValidation checkNotNegative(int value) {
+        return value < 0 ? FormValidation.error("must be 0 or a positive integer") : FormValidation.ok();
+    }
+}
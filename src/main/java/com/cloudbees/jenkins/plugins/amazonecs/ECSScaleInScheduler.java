@@ -0,0 +1,170 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.init.Terminator;
+import hudson.slaves.Cloud;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the scale in of the auto scaling groups of all {@link ECSEC2Cloud}s on a small shared scheduler.
+ *
+ * The scale in loops follow the configured clouds: they are started and stopped by a reconciliation with the
+ * clouds of Jenkins, which runs periodically and shortly after a cloud is created. Clouds on the same cluster
+ * and auto scaling group share one loop. Each loop runs at a randomly spread interval, so that the clouds do not
+ * all call AWS at the same second, and skips a run while its previous run is still going on.
+ */
+final class ECSScaleInScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    private static final long INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(ECSScaleInScheduler.class.getName() + ".intervalSeconds", 60));
+
+    /**
+     * Maximum relative deviation of the interval of a loop from {@link #INTERVAL_MILLIS}.
+     */
+    private static final double JITTER = 0.1;
+
+    private static final long RECONCILE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final ScheduledExecutorService EXECUTOR;
+
+    static {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                Integer.getInteger(ECSScaleInScheduler.class.getName() + ".threads", 2),
+                new NamingThreadFactory(new DaemonThreadFactory(), "ECSScaleIn"));
+        // cancelled loops of removed clouds must not pile up in the queue
+        executor.setRemoveOnCancelPolicy(true);
+        EXECUTOR = executor;
+    }
+
+    /**
+     * Scale in loops by region, cluster and auto scaling group.
+     */
+    @GuardedBy("ECSScaleInScheduler.class")
+    private static final Map<String, Loop> loops = new HashMap<>();
+
+    @GuardedBy("ECSScaleInScheduler.class")
+    private static boolean started;
+
+    private ECSScaleInScheduler() {
+    }
+
+    /**
+     * Starts the periodic reconciliation of the scale in loops with the clouds.
+     */
+    static synchronized void start() {
+        if (!started) {
+            started = true;
+            EXECUTOR.scheduleWithFixedDelay(ECSScaleInScheduler::reconcile, 0, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reconciles the scale in loops with the clouds shortly, e.g. because a cloud was created.
+     */
+    static void reconcileSoon() {
+        EXECUTOR.schedule(ECSScaleInScheduler::reconcile, RECONCILE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Terminator
+    public static void stop() {
+        EXECUTOR.shutdownNow();
+    }
+
+    private static void reconcile() {
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        final Map<String, String> cloudNames = new HashMap<>();
+        for (Cloud c : jenkins.clouds) {
+            if (c instanceof ECSEC2Cloud) {
+                final ECSEC2Cloud cloud = (ECSEC2Cloud) c;
+                if (StringUtils.isNotEmpty(cloud.getAutoScalingGroup()) && StringUtils.isNotEmpty(cloud.getCluster())) {
+                    cloudNames.putIfAbsent(getKey(cloud), cloud.name);
+                }
+            }
+        }
+        synchronized (ECSScaleInScheduler.class) {
+            for (Iterator<Map.Entry<String, Loop>> it = loops.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, Loop> entry = it.next();
+                if (!cloudNames.containsKey(entry.getKey())) {
+                    LOGGER.log(Level.INFO, "Stop scale in of {0}", entry.getKey());
+                    entry.getValue().future.cancel(false);
+                    it.remove();
+                }
+            }
+            cloudNames.forEach((key, cloudName) -> {
+                final Loop loop = loops.get(key);
+                if (loop == null) {
+                    loops.put(key, new Loop(key, cloudName));
+                } else {
+                    loop.cloudName = cloudName;
+                }
+            });
+        }
+    }
+
+    private static String getKey(ECSEC2Cloud cloud) {
+        return cloud.getRegionName() + '/' + cloud.getCluster() + '/' + cloud.getAutoScalingGroup();
+    }
+
+    private static class Loop {
+        private final String key;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final ScheduledFuture<?> future;
+        /**
+         * A cloud using the cluster and group, looked up on every run to use its current configuration.
+         */
+        private volatile String cloudName;
+
+        Loop(String key, String cloudName) {
+            this.key = key;
+            this.cloudName = cloudName;
+            final long interval = (long) (INTERVAL_MILLIS * (1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER)));
+            final long initialDelay = ThreadLocalRandom.current().nextLong(interval);
+            LOGGER.log(Level.FINE, "Schedule scale in of {0} every {1} ms", new Object[] {key, interval});
+            this.future = EXECUTOR.scheduleAtFixedRate(this::tick, initialDelay, interval, TimeUnit.MILLISECONDS);
+        }
+
+        private void tick() {
+            if (!running.compareAndSet(false, true)) {
+                LOGGER.log(Level.FINE, "Skip scale in of {0}, the previous one is still running", key);
+                return;
+            }
+            EXECUTOR.execute(this::scaleIn);
+        }
+
+        private void scaleIn() {
+            try {
+                final Cloud c = Jenkins.get().clouds.getByName(cloudName);
+                if (c instanceof ECSEC2Cloud && key.equals(getKey((ECSEC2Cloud) c))) {
+                    final ECSEC2Cloud cloud = (ECSEC2Cloud) c;
+                    new ECSClusterScaleIn(cloud.getEcsService(), cloud.getCluster(), cloud.getAutoScalingGroup(),
+                            cloud.getScaleInPolicy(), cloud.isConsolidateInstances()).run();
+                }
+            } catch (RuntimeException e) {
+                // an exception would cancel the loop
+                LOGGER.log(Level.WARNING, "Scale in of " + key + " failed", e);
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.autoscaling.AmazonAutoScaling;
+import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.amazonaws.services.autoscaling.model.UpdateAutoScalingGroupRequest;
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.ContainerInstanceStatus;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sizes the auto scaling group of a cluster for all launches currently waiting for resources at once.
+ *
+ * Launches that do not fit the cluster register their demand; shortly after, the planner packs the demanded
+ * cpu and memory onto the unreserved resources of the registered instances and then onto new instances of the
+ * size of the cluster's container instances, subtracts the instances that are requested but not yet registered
+ * in the cluster and raises the desired capacity by the difference with a single update, capped at the max size
+ * of the group.
+ */
+class ECSScaleOutPlanner {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    /**
+     * How long demand is collected before a plan is made.
+     */
+    private static final long PLAN_DELAY_MILLIS = Long.getLong(ECSScaleOutPlanner.class.getName() + ".planDelayMillis", 1000);
+
+    /**
+     * Demand that has not been renewed for this long is dropped, e.g. because its launch timed out.
+     */
+    private static final long DEMAND_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "ECSScaleOutPlanner"));
+
+    private final ECSService ecsService;
+    private final ECSClusterCapacity capacity;
+    private final String asgName;
+
+    @GuardedBy("this")
+    private final Map<Object, Demand> demands = new HashMap<>();
+    @GuardedBy("this")
+    private boolean planScheduled;
+
+    /**
+     * Registered cpu and memory of a container instance of the cluster, remembered while it is scaled to zero.
+     */
+    private volatile int instanceCpu;
+    private volatile int instanceMemory;
+
+    ECSScaleOutPlanner(ECSService ecsService, ECSClusterCapacity capacity, String asgName) {
+        this.ecsService = ecsService;
+        this.capacity = capacity;
+        this.asgName = asgName;
+    }
+
+    /**
+     * Registers (or renews) the demand of a launch that could not be placed on the cluster.
+     *
+     * @param launch identifies the launch across its capacity checks
+     */
+    synchronized void addDemand(Object launch, ECSTaskTemplate template) {
+        demands.put(launch, new Demand(template.getCpu(), template.getMemoryConstraint()));
+        if (!planScheduled) {
+            planScheduled = true;
+            EXECUTOR.schedule(() -> ECSApiMetrics.withCaller("scale out/" + asgName, this::plan), PLAN_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes the demand of a launch, because it was placed.
+     */
+    synchronized void removeDemand(Object launch) {
+        demands.remove(launch);
+    }
+
+    private void plan() {
+        final List<Demand> pending;
+        synchronized (this) {
+            planScheduled = false;
+            final long now = System.currentTimeMillis();
+            demands.values().removeIf(demand -> now - demand.createdAt > DEMAND_EXPIRY_MILLIS);
+            pending = new ArrayList<>(demands.values());
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            scaleOut(pending);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to scale out auto scaling group " + asgName, e);
+        }
+    }
+
+    private void scaleOut(List<Demand> pending) {
+        final AmazonAutoScaling autoScalingClient = ecsService.getAmazonAutoScalingClient();
+        for (final AutoScalingGroup autoScalingGroup : autoScalingClient.describeAutoScalingGroups(
+                new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(asgName)).getAutoScalingGroups()) {
+            final int desiredInstances = autoScalingGroup.getDesiredCapacity();
+            final int registeredInstances = capacity.count(ContainerInstanceStatus.ACTIVE) + capacity.count(ContainerInstanceStatus.DRAINING);
+            final int startingInstances = Math.max(0, desiredInstances - registeredInstances);
+            final int requiredInstances = getRequiredInstances(pending);
+            LOGGER.log(Level.INFO, "Auto scaling group {0} has {1} instances ({2} starting), {3} instances required for {4} pending launches",
+                    new Object[] {asgName, desiredInstances, startingInstances, requiredInstances, pending.size()});
+
+            final int wantedInstances = desiredInstances + requiredInstances - startingInstances;
+            final int newDesiredInstances = Math.min(autoScalingGroup.getMaxSize(), wantedInstances);
+            if (newDesiredInstances > desiredInstances) {
+                LOGGER.log(Level.INFO, "Increasing size of auto scaling group {0} to {1} instances", new Object[] {asgName, newDesiredInstances});
+                autoScalingClient.updateAutoScalingGroup(new UpdateAutoScalingGroupRequest()
+                        .withAutoScalingGroupName(autoScalingGroup.getAutoScalingGroupName())
+                        .withDesiredCapacity(newDesiredInstances));
+            } else if (wantedInstances > desiredInstances) {
+                LOGGER.log(Level.INFO, "Not increasing size of auto scaling group {0} (already at max size of {1} instances)", new Object[] {asgName, autoScalingGroup.getMaxSize()});
+            }
+        }
+    }
+
+    /**
+     * As long as the size of the cluster's container instances is unknown (no instance ever registered) a single
+     * instance is requested.
+     */
+    private int getRequiredInstances(List<Demand> pending) {
+        for (ContainerInstance instance : capacity.getContainerInstances()) {
+            instanceCpu = Math.max(instanceCpu, ECSClusterCapacity.getRegisteredResource(instance, "CPU"));
+            instanceMemory = Math.max(instanceMemory, ECSClusterCapacity.getRegisteredResource(instance, "MEMORY"));
+        }
+        final int cpu = instanceCpu;
+        final int memory = instanceMemory;
+        if (cpu <= 0 || memory <= 0) {
+            return 1;
+        }
+        // launches registered while their instance was starting may fit it now
+        return pack(pending, capacity.getUnreservedResources(), cpu, memory);
+    }
+
+    /**
+     * Packs the demands first fit decreasing, onto the free resources of the registered instances first and then
+     * onto new instances with the given cpu and memory. Demands which do not fit on an instance are left out.
+     *
+     * @param registered the unreserved {cpu, memory} of each registered instance
+     * @return the number of new instances needed
+     */
+    int pack(List<Demand> pending, List<int[]> registered, int cpu, int memory) {
+        pending.sort(Comparator.comparingInt((Demand demand) -> demand.memory).thenComparingInt(demand -> demand.cpu).reversed());
+        final List<int[]> instances = new ArrayList<>();
+        for (int[] resources : registered) {
+            instances.add(resources.clone());
+        }
+        for (Demand demand : pending) {
+            if (demand.cpu > cpu || demand.memory > memory) {
+                LOGGER.log(Level.WARNING, "A task with {0} cpu units and {1}mb memory does not fit on a container instance of auto scaling group {2}",
+                        new Object[] {demand.cpu, demand.memory, asgName});
+                continue;
+            }
+            int[] free = null;
+            for (int[] instance : instances) {
+                if (instance[0] >= demand.cpu && instance[1] >= demand.memory) {
+                    free = instance;
+                    break;
+                }
+            }
+            if (free == null) {
+                free = new int[] {cpu, memory};
+                instances.add(free);
+            }
+            free[0] -= demand.cpu;
+            free[1] -= demand.memory;
+        }
+        return instances.size() - registered.size();
+    }
+
+    static class Demand {
+        private final int cpu;
+        private final int memory;
+        private final long createdAt = System.currentTimeMillis();
+
+        Demand(int cpu, int memory) {
+            this.cpu = cpu;
+            this.memory = memory;
+        }
+    }
+}
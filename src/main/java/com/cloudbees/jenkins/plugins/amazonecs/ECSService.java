@@ -25,32 +25,32 @@
 
 package com.cloudbees.jenkins.plugins.amazonecs;
 
-import java.io.IOException;
-import java.text.MessageFormat;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.autoscaling.AmazonAutoScaling;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.AmazonECSAsync;
 import com.amazonaws.services.ecs.model.*;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 
-import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
-import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
-import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
-import com.amazonaws.services.autoscaling.model.Instance;
-import com.amazonaws.services.autoscaling.model.UpdateAutoScalingGroupRequest;
-
 import hudson.AbortException;
+import hudson.model.Computer;
+
+import javax.annotation.CheckForNull;
 
 /**
  * Encapsulates interactions with Amazon ECS.
@@ -64,48 +64,192 @@ class ECSService {
 
     private String credentialsId;
     private String regionName;
+    @CheckForNull
+    private final ECSHttpClientSettings httpClientSettings;
+
+    /**
+     * Task definitions known to match a template, keyed by task definition family like their locks.
+     */
+    private final ConcurrentHashMap<String, CachedTaskDefinition> taskDefinitions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> taskDefinitionLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Task definitions being resolved for launches, keyed by task definition family.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<String>> registrations = new ConcurrentHashMap<>();
+
+    private final ECSTaskWatcher taskWatcher = new ECSTaskWatcher(this);
 
-    ECSService(String credentialsId, String regionName) {
+    private final ECSInstanceLaunchTimes instanceLaunchTimes = new ECSInstanceLaunchTimes(this);
+
+    private final ECSInstanceIdleTimes instanceIdleTimes = new ECSInstanceIdleTimes();
+
+    /**
+     * Scale out planners, keyed by cluster and auto scaling group name.
+     */
+    private final ConcurrentHashMap<String, ECSScaleOutPlanner> scaleOutPlanners = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, ECSClusterCapacity> clusterCapacities = new ConcurrentHashMap<>();
+
+    ECSService(String credentialsId, String regionName, @CheckForNull ECSHttpClientSettings httpClientSettings) {
         super();
         this.credentialsId = credentialsId;
         this.regionName = regionName;
+        this.httpClientSettings = httpClientSettings;
     }
 
     AmazonIdentityManagement getAmazonIAMClient() {
-        return AWSClientsManager.getAmazonIAMClient(credentialsId, regionName);
+        return AWSClientsManager.getAmazonIAMClient(credentialsId, regionName, httpClientSettings);
     }
 
     AmazonECS getAmazonECSClient() {
-        return AWSClientsManager.getAmazonECSClient(credentialsId, regionName);
+        return getAmazonECSAsyncClient();
+    }
+
+    private AmazonECSAsync getAmazonECSAsyncClient() {
+        return AWSClientsManager.getAmazonECSClient(credentialsId, regionName, httpClientSettings);
     }
 
     AmazonAutoScaling getAmazonAutoScalingClient() {
-        return AWSClientsManager.getAmazonAutoScalingClient(credentialsId, regionName);
+        return AWSClientsManager.getAmazonAutoScalingClient(credentialsId, regionName, httpClientSettings);
     }
 
     AmazonEC2 getAmazonEC2Client() {
-        return AWSClientsManager.getAmazonEC2Client(credentialsId, regionName);
+        return AWSClientsManager.getAmazonEC2Client(credentialsId, regionName, httpClientSettings);
     }
 
-    void deleteTask(String taskArn, String clusterArn) {
-        final AmazonECS client = getAmazonECSClient();
+    ECSInstanceLaunchTimes getInstanceLaunchTimes() {
+        return instanceLaunchTimes;
+    }
 
+    ECSInstanceIdleTimes getInstanceIdleTimes() {
+        return instanceIdleTimes;
+    }
+
+    ECSClusterCapacity getClusterCapacity(String clusterArn) {
+        return clusterCapacities.computeIfAbsent(clusterArn, key -> new ECSClusterCapacity(this, clusterArn));
+    }
+
+    private ECSScaleOutPlanner getScaleOutPlanner(ECSClusterCapacity capacity, String asgName) {
+        return scaleOutPlanners.computeIfAbsent(capacity.getClusterArn() + '/' + asgName, key -> new ECSScaleOutPlanner(this, capacity, asgName));
+    }
+
+    ECSTaskWatcher getTaskWatcher() {
+        return taskWatcher;
+    }
+
+    /**
+     * Stops the background work of this service once no cloud uses it anymore.
+     */
+    void shutdown() {
+        taskWatcher.stop();
+    }
+
+    void deleteTask(String taskArn, String clusterArn) {
         LOGGER.log(Level.INFO, "Delete ECS Slave task: {0}", taskArn);
+        stopTaskAsync(taskArn, clusterArn).whenComplete((result, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.SEVERE, "Couldn't stop task arn " + taskArn + " caught exception: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    CompletableFuture<StopTaskResult> stopTaskAsync(String taskArn, String clusterArn) {
+        return this.<StopTaskRequest, StopTaskResult>call(getAmazonECSAsyncClient()::stopTaskAsync, new StopTaskRequest().withTask(taskArn).withCluster(clusterArn))
+                .whenComplete((result, e) -> getClusterCapacity(clusterArn).invalidate());
+    }
+
+    CompletableFuture<DescribeTasksResult> describeTasksAsync(String clusterArn, Collection<String> taskArns) {
+        return call(getAmazonECSAsyncClient()::describeTasksAsync, new DescribeTasksRequest().withCluster(clusterArn).withTasks(taskArns));
+    }
+
+    CompletableFuture<ListContainerInstancesResult> listContainerInstancesAsync(ListContainerInstancesRequest request) {
+        return call(getAmazonECSAsyncClient()::listContainerInstancesAsync, request);
+    }
+
+    CompletableFuture<DescribeContainerInstancesResult> describeContainerInstancesAsync(String clusterArn, Collection<String> containerInstanceArns) {
+        return call(getAmazonECSAsyncClient()::describeContainerInstancesAsync,
+                new DescribeContainerInstancesRequest().withCluster(clusterArn).withContainerInstances(containerInstanceArns));
+    }
+
+    /**
+     * Executes a request with an asynchronous client once the rate limit allows it, the returned future is completed
+     * on the client's threads.
+     */
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(AsyncCall<Q, R> call, Q request) {
+        // the caller and its priority are taken from the calling thread
+        final Q tagged = ECSApiMetrics.withCallerName(ECSRateLimiter.withCallerPriority(request));
+        return AWSClientsManager.getRateLimiter(credentialsId, regionName).acquire(tagged)
+                .thenCompose(acquired -> submit(call, tagged));
+    }
+
+    private static <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> submit(AsyncCall<Q, R> call, Q request) {
+        final CompletableFuture<R> future = new CompletableFuture<>();
         try {
-            client.stopTask(new StopTaskRequest().withTask(taskArn).withCluster(clusterArn));
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Couldn't stop task arn " + taskArn + " caught exception: " + e.getMessage(), e);
+            call.call(request, new AsyncHandler<Q, R>() {
+                @Override
+                public void onError(Exception e) {
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void onSuccess(Q request, R result) {
+                    future.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
         }
+        return future;
+    }
+
+    private interface AsyncCall<Q extends AmazonWebServiceRequest, R> {
+        Future<R> call(Q request, AsyncHandler<Q, R> handler);
     }
 
     /**
      * Looks whether the latest task definition matches the desired one. If yes, returns the ARN of the existing one.
      * If no, register a new task definition with desired parameters and return the new ARN.
+     * The result is cached per task definition family, so as long as the desired task definition does not change
+     * no further ECS calls are made.
      */
     String registerTemplate(final ECSCloud cloud, final ECSTaskTemplate template, String clusterArn) {
-        final AmazonECS client = getAmazonECSClient();
+        final String familyName = fullQualifiedTemplateName(cloud, template);
+        final RegisterTaskDefinitionRequest request = createTaskDefinitionRequest(cloud, template, familyName);
+
+        String taskDefinitionArn = getCachedTaskDefinitionArn(familyName, request);
+        if (taskDefinitionArn != null) {
+            return taskDefinitionArn;
+        }
+        synchronized (taskDefinitionLocks.computeIfAbsent(familyName, key -> new Object())) {
+            // another launch for the same template may have registered it in the meantime
+            taskDefinitionArn = getCachedTaskDefinitionArn(familyName, request);
+            if (taskDefinitionArn == null) {
+                taskDefinitionArn = findOrRegisterTaskDefinition(cloud, template, familyName, request);
+                taskDefinitions.put(familyName, new CachedTaskDefinition(request, taskDefinitionArn));
+            }
+            return taskDefinitionArn;
+        }
+    }
 
-        String familyName = fullQualifiedTemplateName(cloud, template);
+    /**
+     * Forgets the cached task definition of the given template, e.g. because it could not be run.
+     */
+    void evictTaskDefinition(final ECSCloud cloud, final ECSTaskTemplate template) {
+        taskDefinitions.remove(fullQualifiedTemplateName(cloud, template));
+    }
+
+    @CheckForNull
+    private String getCachedTaskDefinitionArn(final String familyName, final RegisterTaskDefinitionRequest request) {
+        final CachedTaskDefinition cached = taskDefinitions.get(familyName);
+        if (cached != null && cached.request.equals(request)) {
+            LOGGER.log(Level.FINE, "Task Definition found in cache: {0}", new Object[] {cached.taskDefinitionArn});
+            return cached.taskDefinitionArn;
+        }
+        return null;
+    }
+
+    RegisterTaskDefinitionRequest createTaskDefinitionRequest(final ECSCloud cloud, final ECSTaskTemplate template, final String familyName) {
         final ContainerDefinition def = new ContainerDefinition()
             .withName(familyName)
             .withImage(template.getImage())
@@ -141,14 +285,42 @@ class ECSService {
             def.withLogConfiguration(logConfig);
         }
 
+        final RegisterTaskDefinitionRequest request = new RegisterTaskDefinitionRequest()
+            .withFamily(familyName)
+            .withVolumes(template.getVolumeEntries())
+            .withContainerDefinitions(def);
+
+        if(cloud instanceof ECSFargateCloud){
+            request.withCpu(((ECSFargateCloud)cloud).getCpu())
+                    .withMemory(((ECSFargateCloud)cloud).getMemory())
+                    .withNetworkMode(NetworkMode.Awsvpc)
+                    .withRequiresCompatibilities(Compatibility.FARGATE);
+        } else {
+            request.withRequiresCompatibilities(Compatibility.EC2);
+        }
+
+        if(template.getTaskExecutionRole() != null){
+            request.withExecutionRoleArn(template.getTaskExecutionRole());
+        }
+
+        if (template.getTaskrole() != null) {
+            request.withTaskRoleArn(template.getTaskrole());
+        }
+        return request;
+    }
+
+    private String findOrRegisterTaskDefinition(final ECSCloud cloud, final ECSTaskTemplate template, final String familyName, final RegisterTaskDefinitionRequest request) {
+        final AmazonECS client = getAmazonECSClient();
+        final ContainerDefinition def = request.getContainerDefinitions().get(0);
+
         String lastToken = null;
-        Deque<String> taskDefinitions = new LinkedList<>();
+        Deque<String> taskDefinitionArns = new LinkedList<>();
         do {
             ListTaskDefinitionsResult listTaskDefinitions = client.listTaskDefinitions(new ListTaskDefinitionsRequest()
                 .withFamilyPrefix(familyName)
                 .withMaxResults(100)
                 .withNextToken(lastToken));
-            taskDefinitions.addAll(listTaskDefinitions.getTaskDefinitionArns());
+            taskDefinitionArns.addAll(listTaskDefinitions.getTaskDefinitionArns());
             lastToken = listTaskDefinitions.getNextToken();
         } while (lastToken != null);
 
@@ -162,8 +334,8 @@ class ECSService {
 
         DescribeTaskDefinitionResult describeTaskDefinition = null;
 
-        if (taskDefinitions.size() > 0) {
-            describeTaskDefinition = client.describeTaskDefinition(new DescribeTaskDefinitionRequest().withTaskDefinition(taskDefinitions.getLast()));
+        if (taskDefinitionArns.size() > 0) {
+            describeTaskDefinition = client.describeTaskDefinition(new DescribeTaskDefinitionRequest().withTaskDefinition(taskDefinitionArns.getLast()));
 
             templateMatchesExistingContainerDefinition = def.equals(describeTaskDefinition.getTaskDefinition().getContainerDefinitions().get(0));
             LOGGER.log(Level.INFO, "Match on container defintion: {0}",new Object[] {templateMatchesExistingContainerDefinition});
@@ -211,28 +383,6 @@ class ECSService {
             LOGGER.log(Level.FINE, "Task Definition already exists: {0}", new Object[] {describeTaskDefinition.getTaskDefinition().getTaskDefinitionArn()});
             return describeTaskDefinition.getTaskDefinition().getTaskDefinitionArn();
         } else {
-            final RegisterTaskDefinitionRequest request = new RegisterTaskDefinitionRequest()
-                .withFamily(familyName)
-                .withVolumes(template.getVolumeEntries())
-                .withContainerDefinitions(def);
-
-            if(cloud instanceof ECSFargateCloud){
-                request.withCpu(((ECSFargateCloud)cloud).getCpu())
-                        .withMemory(((ECSFargateCloud)cloud).getMemory())
-                        .withNetworkMode(NetworkMode.Awsvpc)
-                        .withRequiresCompatibilities(Compatibility.FARGATE);
-            } else {
-                request.withRequiresCompatibilities(Compatibility.EC2);
-            }
-
-            if(template.getTaskExecutionRole() != null){
-                request.withExecutionRoleArn(template.getTaskExecutionRole());
-            }
-
-            if (template.getTaskrole() != null) {
-                request.withTaskRoleArn(template.getTaskrole());
-            }
-
             final RegisterTaskDefinitionResult result = client.registerTaskDefinition(request);
             String taskDefinitionArn = result.getTaskDefinition().getTaskDefinitionArn();
             LOGGER.log(Level.FINE, "Created Task Definition {0}: {1}", new Object[] {taskDefinitionArn, request});
@@ -242,11 +392,73 @@ class ECSService {
     }
 
     private String fullQualifiedTemplateName(final ECSCloud cloud, final ECSTaskTemplate template) {
-        return cloud.getDisplayName().replaceAll("\\s+", "") + '-' + template.getTemplateName();
+        return fullQualifiedTemplateName(cloud, template.getTemplateName());
+    }
+
+    private String fullQualifiedTemplateName(final ECSCloud cloud, final String templateName) {
+        return cloud.getDisplayName().replaceAll("\\s+", "") + '-' + templateName;
+    }
+
+    /**
+     * Starts the ECS task of a slave. Concurrent launches for the same template share one resolution of its task
+     * definition, which runs on the remoting thread pool as it may call ECS, and start their tasks on the asynchronous
+     * ECS client as soon as the task definition is known.
+     *
+     * Each slave needs its own name and JNLP secret in the container overrides, so every task is started with its own
+     * RunTask call: the count of RunTask only starts identical tasks.
+     *
+     * @param reservation the resources reserved for the task, if any, which is placed on their instance and released
+     * if the task cannot be started
+     * @return the ARN of the started task, once it has been started
+     */
+    CompletableFuture<String> launchTask(final ECSSlave slave, final ECSTaskTemplate template, final String clusterArn, final Collection<String> command,
+                                         @CheckForNull final ECSClusterCapacity.Reservation reservation) {
+        final String caller = slave.getCloud().name + "/run";
+        return resolveTaskDefinition(slave.getCloud(), template, clusterArn, caller)
+                .thenCompose(taskDefinitionArn -> ECSApiMetrics.withCaller(caller, () -> runEcsTaskAsync(slave, template, clusterArn, command, taskDefinitionArn, reservation)))
+                .whenComplete((taskArn, e) -> {
+                    // the started task changed the remaining resources of the cluster
+                    getClusterCapacity(clusterArn).invalidate();
+                    if (e == null) {
+                        slave.setTaskArn(taskArn);
+                    } else if (reservation != null) {
+                        reservation.release();
+                    }
+                });
     }
 
-    String runEcsTask(final ECSSlave slave, final ECSTaskTemplate template, String clusterArn, Collection<String> command, String taskDefinitionArn) throws IOException {
-        AmazonECS client = getAmazonECSClient();
+    private CompletableFuture<String> resolveTaskDefinition(final ECSCloud cloud, final ECSTaskTemplate template, final String clusterArn, final String caller) {
+        final String familyName = fullQualifiedTemplateName(cloud, template);
+        final CompletableFuture<String> registration = new CompletableFuture<>();
+        final CompletableFuture<String> running = registrations.putIfAbsent(familyName, registration);
+        if (running != null) {
+            return running;
+        }
+        try {
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    registration.complete(ECSApiMetrics.withCaller(caller, () -> registerTemplate(cloud, template, clusterArn)));
+                } catch (Throwable e) {
+                    LOGGER.log(Level.WARNING, "Cannot resolve the task definition of template " + template.getTemplateName(), e);
+                    registration.completeExceptionally(e);
+                } finally {
+                    registrations.remove(familyName, registration);
+                }
+            });
+        } catch (RuntimeException e) {
+            registrations.remove(familyName, registration);
+            registration.completeExceptionally(e);
+        }
+        return registration;
+    }
+
+    /**
+     * Starts the task of a slave.
+     *
+     * @return the ARN of the started task
+     */
+    private CompletableFuture<String> runEcsTaskAsync(final ECSSlave slave, final ECSTaskTemplate template, String clusterArn, Collection<String> command, String taskDefinitionArn,
+                                                      @CheckForNull ECSClusterCapacity.Reservation reservation) {
         slave.setTaskDefinitonArn(taskDefinitionArn);
 
         KeyValuePair envNodeName = new KeyValuePair();
@@ -270,6 +482,12 @@ class ECSService {
 
         if(slave.getCloud() instanceof ECSEC2Cloud){
             runTaskRequest.withLaunchType(LaunchType.EC2);
+            if (reservation != null) {
+                // the reservation already avoided the evacuated instances if it could
+                reservation.applyPlacement(runTaskRequest);
+            } else if (((ECSEC2Cloud) slave.getCloud()).isConsolidateInstances()) {
+                ECSClusterConsolidation.applyPlacement(runTaskRequest, getClusterCapacity(clusterArn).getEvacuatedInstances().values());
+            }
         } else {
             runTaskRequest.withLaunchType(LaunchType.FARGATE)
                     .withNetworkConfiguration(new NetworkConfiguration().withAwsvpcConfiguration(
@@ -282,167 +500,62 @@ class ECSService {
 
         runTaskRequest.withCluster(clusterArn);
 
-        final RunTaskResult runTaskResult = client.runTask(runTaskRequest);
-
-        if (!runTaskResult.getFailures().isEmpty()) {
-            LOGGER.log(Level.WARNING, "Slave {0} - Failure to run task with definition {1} on ECS cluster {2}", new Object[] {slave.getNodeName(), taskDefinitionArn, clusterArn});
-            for (Failure failure : runTaskResult.getFailures()) {
-                LOGGER.log(Level.WARNING, "Slave {0} - Failure reason={1}, arn={2}", new Object[] {slave.getNodeName(), failure.getReason(), failure.getArn()});
+        return this.<RunTaskRequest, RunTaskResult>call(getAmazonECSAsyncClient()::runTaskAsync, runTaskRequest).thenApply(runTaskResult -> {
+            if (!runTaskResult.getFailures().isEmpty()) {
+                LOGGER.log(Level.WARNING, "Slave {0} - Failure to run task with definition {1} on ECS cluster {2}", new Object[] {slave.getNodeName(), taskDefinitionArn, clusterArn});
+                for (Failure failure : runTaskResult.getFailures()) {
+                    LOGGER.log(Level.WARNING, "Slave {0} - Failure reason={1}, arn={2}", new Object[] {slave.getNodeName(), failure.getReason(), failure.getArn()});
+                }
+                throw new CompletionException(new AbortException("Failed to run slave container " + slave.getNodeName()));
             }
-            throw new AbortException("Failed to run slave container " + slave.getNodeName());
-        }
-        return runTaskResult.getTasks().get(0).getTaskArn();
+            return runTaskResult.getTasks().get(0).getTaskArn();
+        });
     }
 
-    void waitForSufficientClusterResources(Date timeout, ECSTaskTemplate template, String clusterArn, String asgName) throws InterruptedException, AbortException {
-        AmazonECS client = getAmazonECSClient();
-        AmazonAutoScaling autoScalingClient = null;
-
-        boolean hasEnoughResources = false;
-        WHILE:
-        do {
-            ListContainerInstancesResult listContainerInstances = client.listContainerInstances(new ListContainerInstancesRequest().withCluster(clusterArn));
-            if (!listContainerInstances.getContainerInstanceArns().isEmpty()) {
-                DescribeContainerInstancesResult containerInstancesDesc = client.describeContainerInstances(new DescribeContainerInstancesRequest().withContainerInstances(listContainerInstances.getContainerInstanceArns()).withCluster(clusterArn));
-
-                // Filter out DRAINING instances, because we can not create new tasks
-                List<ContainerInstance> activeContainerInstances =
-                        containerInstancesDesc.getContainerInstances().stream()
-                                .filter(containerInstance ->
-                                        !containerInstance.getStatus().equals(ContainerInstanceStatus.DRAINING.toString()))
-                                .collect(Collectors.toList());
+    /**
+     * Checks once whether an active instance of the cluster has sufficient unreserved resources for the
+     * template and reserves them for the launch. If not, the launch is added to the demand the auto scaling
+     * group (if any) is scaled out for. Callers are expected to check again later instead of waiting here.
+     * A stale snapshot of the cluster is refreshed first, without blocking the calling thread.
+     *
+     * @param launch identifies the launch across its capacity checks
+     * @return the reservation to mark as placed or release once the task was started or failed, completed with
+     * null if there are not sufficient resources
+     */
+    CompletableFuture<ECSClusterCapacity.Reservation> reserveClusterResources(ECSTaskTemplate template, String clusterArn, String asgName, Object launch) {
+        final ECSClusterCapacity capacity = getClusterCapacity(clusterArn);
+        return capacity.refreshIfStale().thenApply(refreshed -> {
+            final List<ContainerInstance> containerInstances = capacity.getSnapshot();
+            if (!containerInstances.isEmpty()) {
                 LOGGER.log(Level.INFO, "Found {0} instances ({1} active, {2} draining)", new Object[] {
-                        containerInstancesDesc.getContainerInstances().size(),
-                        activeContainerInstances.size(),
-                        containerInstancesDesc.getContainerInstances().size() - activeContainerInstances.size()
+                        containerInstances.size(),
+                        ECSClusterCapacity.count(containerInstances, ContainerInstanceStatus.ACTIVE),
+                        ECSClusterCapacity.count(containerInstances, ContainerInstanceStatus.DRAINING)
                 });
-
-                for (ContainerInstance instance : activeContainerInstances) {
-                    LOGGER.log(Level.INFO, "Resources found in instance {1}: {0}", new Object[] {instance.getRemainingResources(), instance.getContainerInstanceArn()});
-                    Resource memoryResource = null;
-                    Resource cpuResource = null;
-                    for (Resource resource : instance.getRemainingResources()) {
-                        if ("MEMORY".equals(resource.getName())) {
-                            memoryResource = resource;
-                        } else if ("CPU".equals(resource.getName())) {
-                            cpuResource = resource;
-                        }
-                    }
-
-                    LOGGER.log(Level.INFO, "Instance {0} has {1}mb of free memory. {2}mb are required", new Object[] {instance.getContainerInstanceArn(), memoryResource.getIntegerValue(), template.getMemoryConstraint()});
-                    LOGGER.log(Level.INFO, "Instance {0} has {1} units of free cpu. {2} units are required", new Object[] {instance.getContainerInstanceArn(), cpuResource.getIntegerValue(), template.getCpu()});
-                    if (memoryResource.getIntegerValue() >= template.getMemoryConstraint()
-                        && cpuResource.getIntegerValue() >= template.getCpu()) {
-                        hasEnoughResources = true;
-                        break WHILE;
+                final ECSClusterCapacity.Reservation reservation = capacity.reserve(template);
+                if (reservation != null) {
+                    if (StringUtils.isNotEmpty(asgName)) {
+                        getScaleOutPlanner(capacity, asgName).removeDemand(launch);
                     }
+                    return reservation;
                 }
             }
 
-            //TODO synchronize scale out calls to avoid unnecessary scaling
             // not enough free resources -> scale out
             if (StringUtils.isNotEmpty(asgName)) {
-                if (autoScalingClient == null) {
-                    autoScalingClient = getAmazonAutoScalingClient();
-                }
-                final DescribeAutoScalingGroupsResult describeAutoScalingGroupResult = autoScalingClient.describeAutoScalingGroups(new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(asgName));
-                for (final AutoScalingGroup autoScalingGroup : describeAutoScalingGroupResult.getAutoScalingGroups()) {
-                    final int currentDesiredInstances = autoScalingGroup.getDesiredCapacity();
-                    LOGGER.log(Level.INFO, "Auto scaling group {0} currently has {1} instances", new Object[] {asgName, currentDesiredInstances});
-                    final int newDesiredInstances = currentDesiredInstances + 1;
-                    if (newDesiredInstances <= autoScalingGroup.getMaxSize()) {
-                        final int newRunningInstances = waitForScaleOut(timeout, newDesiredInstances, clusterArn, autoScalingGroup.getAutoScalingGroupName());
-                        if (newRunningInstances == newDesiredInstances) {
-                            hasEnoughResources = true;
-                        }
-                        break WHILE;
-                    } else {
-                        LOGGER.log(Level.INFO, "Not increasing size of auto scaling group {0} (already at max size of {1} instances)", new Object[] {asgName, autoScalingGroup.getMaxSize()});
-                    }
-                }
+                getScaleOutPlanner(capacity, asgName).addDemand(launch, template);
             }
-
-            // sleep 10s and check memory again
-            Thread.sleep(10000);
-        } while (!hasEnoughResources && timeout.after(new Date()));
-
-        if (!hasEnoughResources) {
-            final String msg = MessageFormat.format("Timeout while waiting for sufficient resources: {0} cpu units, {1}mb free memory", template.getCpu(), template.getMemoryConstraint());
-            LOGGER.log(Level.WARNING, msg);
-            throw new AbortException(msg);
-        }
+            return null;
+        });
     }
 
-    private int waitForScaleOut(final Date timeout, final int newDesiredInstances, final String ecsClusterArn,
-        final String autoScalingGroupName) throws InterruptedException {
-        final int autoScalingInstanceCount = waitForAutoScalingScaleOut(timeout, autoScalingGroupName, newDesiredInstances);
-        if (autoScalingInstanceCount == newDesiredInstances) {
-            return waitForEcsClusterScaleOut(timeout, ecsClusterArn, newDesiredInstances);
-        } else {
-            return autoScalingInstanceCount;
-        }
-    }
+    private static class CachedTaskDefinition {
+        private final RegisterTaskDefinitionRequest request;
+        private final String taskDefinitionArn;
 
-    private int waitForAutoScalingScaleOut(final Date timeout, final String autoScalingGroupName, final int desiredCapacity)
-        throws InterruptedException {
-        final AmazonAutoScaling autoScalingClient = getAmazonAutoScalingClient();
-        LOGGER.log(Level.INFO, "Increasing size of auto scaling group {0} to {1} instances", new Object[] {autoScalingGroupName, desiredCapacity});
-        autoScalingClient.updateAutoScalingGroup(new UpdateAutoScalingGroupRequest().withAutoScalingGroupName(autoScalingGroupName).withDesiredCapacity(desiredCapacity));
-        do {
-            final int runningInstances = getAutoScalingInServiceCount(autoScalingClient, autoScalingGroupName);
-            if (runningInstances == desiredCapacity) {
-                LOGGER.log(Level.INFO, "Auto scaling group {0} now has {1} instances", new Object[] {autoScalingGroupName, desiredCapacity});
-                return runningInstances;
-            } else {
-                LOGGER.log(Level.FINE, "Waiting for scale out of auto scaling group {0}", new Object[] {autoScalingGroupName});
-                Thread.sleep(5000);
-            }
-        } while (timeout.after(new Date()));
-        return getAutoScalingInServiceCount(autoScalingClient, autoScalingGroupName);
-    }
-
-    private int getAutoScalingInServiceCount(final AmazonAutoScaling autoScalingClient,
-        final String autoScalingGroupName) {
-        int inService = 0;
-        final List<AutoScalingGroup> autoScalingGroups = autoScalingClient.describeAutoScalingGroups(new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(autoScalingGroupName)).getAutoScalingGroups();
-        for (final AutoScalingGroup asg : autoScalingGroups) {
-            for (final Instance instance : asg.getInstances()) {
-                if (instance.getLifecycleState().equals("InService")) {
-                    inService += 1;
-                }
-            }
+        CachedTaskDefinition(RegisterTaskDefinitionRequest request, String taskDefinitionArn) {
+            this.request = request;
+            this.taskDefinitionArn = taskDefinitionArn;
         }
-        return inService;
-    }
-
-    private int waitForEcsClusterScaleOut(final Date timeout, final String ecsClusterArn, final int expectedRunningCount)
-        throws InterruptedException {
-        final AmazonECS ecsClient = getAmazonECSClient();
-        do {
-            final int activeEcsInstances = getEcsRunningCount(ecsClient, ecsClusterArn);
-            final int drainingEcsInstances = getEcsDrainingCount(ecsClient, ecsClusterArn);
-            if (activeEcsInstances + drainingEcsInstances >= expectedRunningCount) {
-                LOGGER.log(Level.INFO, "ECS cluster {0} now has {1} active and {2} draining instances", new Object[] {ecsClusterArn, activeEcsInstances, drainingEcsInstances});
-                return activeEcsInstances;
-            } else {
-                LOGGER.log(Level.FINE, "Waiting for scale out of ECS cluster {0}", new Object[] {ecsClusterArn});
-                Thread.sleep(5000);
-            }
-        } while (timeout.after(new Date()));
-        return getEcsRunningCount(ecsClient, ecsClusterArn);
-    }
-
-    private int getEcsRunningCount(final AmazonECS ecsClient, final String ecsClusterArn) {
-        return ecsClient.listContainerInstances(new ListContainerInstancesRequest()
-            .withCluster(ecsClusterArn)
-            .withStatus(ContainerInstanceStatus.ACTIVE)
-        ).getContainerInstanceArns().size();
-    }
-
-    private int getEcsDrainingCount(final AmazonECS ecsClient, final String ecsClusterArn) {
-        return ecsClient.listContainerInstances(new ListContainerInstancesRequest()
-                .withCluster(ecsClusterArn)
-                .withStatus(ContainerInstanceStatus.DRAINING)
-        ).getContainerInstanceArns().size();
     }
 }
@@ -68,6 +68,11 @@ public class ECSSlave extends AbstractCloudSlave {
      */
     @CheckForNull
     private String taskArn;
+    /**
+     * Name of the {@link ECSTaskTemplate} this slave was started from.
+     */
+    @CheckForNull
+    private String templateName;
 
     private static RetentionStrategy deleteAfterFinished = new RetentionStrategy<ECSComputer>() {
         @Override
@@ -128,12 +133,21 @@ public class ECSSlave extends AbstractCloudSlave {
         return taskArn;
     }
 
+    public String getTemplateName() {
+        return templateName;
+    }
+
     void setClusterArn(String clusterArn) {
         this.clusterArn = clusterArn;
     }
 
     void setTaskArn(String taskArn) {
         this.taskArn = taskArn;
+        ECSSlaveRegistry.taskStarted(this);
+    }
+
+    void setTemplateName(String templateName) {
+        this.templateName = templateName;
     }
 
     public void setTaskDefinitonArn(String taskDefinitonArn) {
@@ -0,0 +1,176 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live index of the ECS slaves of Jenkins by cloud, node name and task ARN, so that looking up slaves does not
+ * scan all nodes of Jenkins.
+ *
+ * The index is kept up to date by node events. Nodes loaded with the Jenkins configuration do not fire events,
+ * so it is filled by a single scan of the nodes on first use, and again after the configuration was reloaded.
+ */
+final class ECSSlaveRegistry {
+
+    /**
+     * Slaves by cloud name and node name.
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, ECSSlave>> slavesByCloud = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ECSSlave> slavesByName = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ECSSlave> slavesByTaskArn = new ConcurrentHashMap<>();
+
+    private static volatile boolean loaded;
+
+    private ECSSlaveRegistry() {
+    }
+
+    /**
+     * @return all ECS slaves
+     */
+    static Collection<ECSSlave> getSlaves() {
+        load();
+        return Collections.unmodifiableCollection(slavesByName.values());
+    }
+
+    /**
+     * @return the ECS slaves of the cloud with the given name
+     */
+    static Collection<ECSSlave> getSlaves(String cloudName) {
+        load();
+        final Map<String, ECSSlave> slaves = slavesByCloud.get(cloudName);
+        return slaves == null ? Collections.emptyList() : Collections.unmodifiableCollection(slaves.values());
+    }
+
+    @CheckForNull
+    static ECSSlave getSlave(String nodeName) {
+        load();
+        return slavesByName.get(nodeName);
+    }
+
+    @CheckForNull
+    static ECSSlave getSlaveByTaskArn(String taskArn) {
+        load();
+        return slavesByTaskArn.get(taskArn);
+    }
+
+    /**
+     * Indexes the task of the given slave, once it has been started.
+     */
+    static synchronized void taskStarted(ECSSlave slave) {
+        final String taskArn = slave.getTaskArn();
+        if (taskArn != null && slavesByName.get(slave.getNodeName()) == slave) {
+            slavesByTaskArn.put(taskArn, slave);
+        }
+    }
+
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (ECSSlaveRegistry.class) {
+            if (loaded) {
+                return;
+            }
+            final Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins == null) {
+                // no nodes to scan yet, and the index is dropped once Jenkins has loaded its configuration
+                loaded = true;
+                return;
+            }
+            for (Node node : new ArrayList<>(jenkins.getNodes())) {
+                if (node instanceof ECSSlave) {
+                    add((ECSSlave) node);
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Drops the index, so that the next lookup scans the nodes again.
+     */
+    private static synchronized void reset() {
+        slavesByCloud.clear();
+        slavesByName.clear();
+        slavesByTaskArn.clear();
+        loaded = false;
+    }
+
+    @GuardedBy("ECSSlaveRegistry.class")
+    private static void add(ECSSlave slave) {
+        slavesByCloud.computeIfAbsent(slave.getCloud().name, key -> new ConcurrentHashMap<>()).put(slave.getNodeName(), slave);
+        slavesByName.put(slave.getNodeName(), slave);
+        if (slave.getTaskArn() != null) {
+            slavesByTaskArn.put(slave.getTaskArn(), slave);
+        }
+    }
+
+    @GuardedBy("ECSSlaveRegistry.class")
+    private static void remove(ECSSlave slave) {
+        final Map<String, ECSSlave> slaves = slavesByCloud.get(slave.getCloud().name);
+        if (slaves != null) {
+            slaves.remove(slave.getNodeName(), slave);
+        }
+        slavesByName.remove(slave.getNodeName(), slave);
+        if (slave.getTaskArn() != null) {
+            slavesByTaskArn.remove(slave.getTaskArn(), slave);
+        }
+    }
+
+    @Extension
+    public static class Listener extends NodeListener {
+
+        @Override
+        protected void onCreated(Node node) {
+            if (node instanceof ECSSlave) {
+                synchronized (ECSSlaveRegistry.class) {
+                    add((ECSSlave) node);
+                }
+            }
+        }
+
+        @Override
+        protected void onUpdated(Node oldOne, Node newOne) {
+            synchronized (ECSSlaveRegistry.class) {
+                if (oldOne instanceof ECSSlave) {
+                    remove((ECSSlave) oldOne);
+                }
+                if (newOne instanceof ECSSlave) {
+                    add((ECSSlave) newOne);
+                }
+            }
+        }
+
+        @Override
+        protected void onDeleted(Node node) {
+            if (node instanceof ECSSlave) {
+                synchronized (ECSSlaveRegistry.class) {
+                    remove((ECSSlave) node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reloading the configuration of Jenkins replaces its nodes without firing node events.
+     */
+    @Extension
+    public static class ReloadListener extends ItemListener {
+
+        @Override
+        public void onLoaded() {
+            reset();
+        }
+    }
+}
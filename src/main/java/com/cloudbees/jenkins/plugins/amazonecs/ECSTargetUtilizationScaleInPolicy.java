@@ -0,0 +1,76 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scale in towards a target utilization of the cluster: drains instances idle for some minutes, the longest idle
+ * first, as long as the CPU and memory reserved on the remaining instances stay at or below the target.
+ */
+public class ECSTargetUtilizationScaleInPolicy extends ECSScaleInPolicy {
+
+    private final int targetUtilizationPercent;
+    private final int idleMinutes;
+
+    @DataBoundConstructor
+    public ECSTargetUtilizationScaleInPolicy(int targetUtilizationPercent, int idleMinutes) {
+        this.targetUtilizationPercent = Math.min(Math.max(targetUtilizationPercent, 0), 100);
+        this.idleMinutes = Math.max(idleMinutes, 0);
+    }
+
+    public int getTargetUtilizationPercent() {
+        return targetUtilizationPercent;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes;
+    }
+
+    @Override
+    public Map<String, String> getInstancesToDrain(ECSScaleInContext context) {
+        final Map<String, String> instancesToDrain = new LinkedHashMap<>();
+        final List<ContainerInstance> drained = new ArrayList<>();
+        for (ContainerInstance instance : context.getIdleInstances(TimeUnit.MINUTES.toMillis(idleMinutes))) {
+            drained.add(instance);
+            final double utilization = context.getUtilization(drained);
+            if (utilization * 100 > targetUtilizationPercent) {
+                // a smaller instance may still be drained
+                drained.remove(instance);
+                continue;
+            }
+            instancesToDrain.put(instance.getContainerInstanceArn(), String.format(
+                    "it's idle and the cluster utilization without it is %.0f%%", utilization * 100));
+        }
+        return instancesToDrain;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ECSScaleInPolicy> {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.displayNameTargetUtilizationScaleInPolicy();
+        }
+
+        public FormValidation doCheckTargetUtilizationPercent(@QueryParameter int value) {
+            if (value < 0 || value > 100) {
+                return FormValidation.error("must be between 0 and 100");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckIdleMinutes(@QueryParameter int value) {
+            return checkNotNegative(value);
+        }
+    }
+}
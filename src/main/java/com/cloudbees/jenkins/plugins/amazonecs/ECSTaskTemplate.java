@@ -194,6 +194,21 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> {
     private String logDriver;
     private List<LogDriverOption> logDriverOptions;
 
+    /**
+     * Number of idle slaves kept started for this template, so that builds can start right away.
+     */
+    private int warmPoolMinIdle;
+
+    /**
+     * Maximum number of idle slaves of this template (0 for no limit); idle slaves beyond are terminated.
+     */
+    private int warmPoolMaxIdle;
+
+    /**
+     * Minutes after which idle slaves beyond {@link #warmPoolMinIdle} are terminated (0 to keep them).
+     */
+    private int warmPoolIdleMinutes;
+
     @DataBoundConstructor
     public ECSTaskTemplate(@Nonnull String templateName,
                            @Nullable String label,
@@ -254,6 +269,21 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> {
         this.dnsSearchDomains = StringUtils.trimToNull(dnsSearchDomains);
     }
 
+    @DataBoundSetter
+    public void setWarmPoolMinIdle(int warmPoolMinIdle) {
+        this.warmPoolMinIdle = Math.max(warmPoolMinIdle, 0);
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolMaxIdle(int warmPoolMaxIdle) {
+        this.warmPoolMaxIdle = Math.max(warmPoolMaxIdle, 0);
+    }
+
+    @DataBoundSetter
+    public void setWarmPoolIdleMinutes(int warmPoolIdleMinutes) {
+        this.warmPoolIdleMinutes = Math.max(warmPoolIdleMinutes, 0);
+    }
+
     public String getLabel() {
         return label;
     }
@@ -308,6 +338,26 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> {
 
     public String getTemplateName() {return templateName; }
 
+    public int getWarmPoolMinIdle() {
+        return warmPoolMinIdle;
+    }
+
+    /**
+     * @return the maximum number of idle slaves, 0 for no limit; never below the minimum number of idle slaves, which
+     * would make the pool terminate and start slaves on every run
+     */
+    public int getWarmPoolMaxIdle() {
+        return warmPoolMaxIdle > 0 ? Math.max(warmPoolMaxIdle, warmPoolMinIdle) : 0;
+    }
+
+    public int getWarmPoolIdleMinutes() {
+        return warmPoolIdleMinutes;
+    }
+
+    boolean hasWarmPool() {
+        return warmPoolMinIdle > 0 || warmPoolMaxIdle > 0 || warmPoolIdleMinutes > 0;
+    }
+
     public static class LogDriverOption extends AbstractDescribableImpl<LogDriverOption>{
         public String name, value;
 
@@ -566,6 +616,16 @@ public class ECSTaskTemplate extends AbstractDescribableImpl<ECSTaskTemplate> {
             return validateMemorySettings(memory,memoryReservation);
         }
 
+        public FormValidation doCheckWarmPoolMaxIdle(@QueryParameter("warmPoolMinIdle") int warmPoolMinIdle, @QueryParameter("warmPoolMaxIdle") int warmPoolMaxIdle) {
+            if (warmPoolMinIdle < 0 || warmPoolMaxIdle < 0) {
+                return FormValidation.error("the warm pool sizes must be 0 or a positive integer");
+            }
+            if (warmPoolMaxIdle > 0 && warmPoolMaxIdle < warmPoolMinIdle) {
+                return FormValidation.error("the maximum number of idle slaves must not be less than the minimum number of idle slaves");
+            }
+            return FormValidation.ok();
+        }
+
         private FormValidation validateMemorySettings(int memory, int memoryReservation) {
             if (memory < 0 || memoryReservation < 0) {
                 return FormValidation.error("memory and/or memoryReservation must be 0 or a positive integer");
@@ -0,0 +1,198 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.Container;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.Task;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the tasks of slaves that have been started but are not connected yet, so that a task stopping
+ * before its agent connects (image pull failure, container crash, missing capacity, ...) fails the
+ * provisioning right away instead of after the slave timeout.
+ *
+ * All watched tasks are polled together with one DescribeTasks call per cluster and 100 tasks, issued concurrently
+ * on the asynchronous ECS client. The next poll is scheduled once the calls of a poll have completed, and polling stops
+ * while no task is watched.
+ */
+class ECSTaskWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    /**
+     * Maximum number of tasks DescribeTasks accepts per call.
+     */
+    private static final int DESCRIBE_CHUNK_SIZE = 100;
+
+    private static final long POLL_INTERVAL_MILLIS = Long.getLong(ECSTaskWatcher.class.getName() + ".pollIntervalMillis", 5000);
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "ECSTaskWatcher"));
+
+    private final ECSService ecsService;
+
+    /**
+     * Futures of the slaves of the watched tasks, by cluster and task ARN.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, CompletableFuture<?>>> watches = new ConcurrentHashMap<>();
+
+    @GuardedBy("this")
+    private boolean polling;
+
+    /**
+     * The next poll, as long as it has not started.
+     */
+    @CheckForNull
+    @GuardedBy("this")
+    private ScheduledFuture<?> nextPoll;
+
+    ECSTaskWatcher(ECSService ecsService) {
+        this.ecsService = ecsService;
+    }
+
+    /**
+     * Fails the given future as soon as the task of the slave is stopped. The task is watched until the future
+     * is completed.
+     */
+    void watch(ECSSlave slave, CompletableFuture<?> online) {
+        final String clusterArn = slave.getClusterArn();
+        final String taskArn = slave.getTaskArn();
+        if (clusterArn == null || taskArn == null) {
+            return;
+        }
+        final Map<String, CompletableFuture<?>> tasks = watches.computeIfAbsent(clusterArn, key -> new ConcurrentHashMap<>());
+        tasks.put(taskArn, online);
+        online.whenComplete((s, e) -> {
+            tasks.remove(taskArn, online);
+            stopIfIdle();
+        });
+        synchronized (this) {
+            if (!polling) {
+                polling = true;
+                schedulePoll();
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void schedulePoll() {
+        nextPoll = EXECUTOR.schedule(() -> {
+            synchronized (this) {
+                nextPoll = null;
+            }
+            ECSApiMetrics.withCaller("task watcher", this::poll);
+        }, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the next poll if no task is watched anymore. A running poll stops polling itself once it completes.
+     */
+    private synchronized void stopIfIdle() {
+        if (nextPoll != null && isIdle()) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+            polling = false;
+        }
+    }
+
+    /**
+     * Stops watching all tasks, e.g. because the service is evicted. Slaves still starting are timed out by their
+     * provisioning.
+     */
+    synchronized void stop() {
+        watches.clear();
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+            polling = false;
+        }
+    }
+
+    private boolean isIdle() {
+        return watches.values().stream().allMatch(Map::isEmpty);
+    }
+
+    private void poll() {
+        final List<CompletableFuture<Void>> checks = new ArrayList<>();
+        try {
+            for (Map.Entry<String, ConcurrentHashMap<String, CompletableFuture<?>>> cluster : watches.entrySet()) {
+                final String clusterArn = cluster.getKey();
+                final List<String> taskArns = new ArrayList<>(cluster.getValue().keySet());
+                for (int i = 0; i < taskArns.size(); i += DESCRIBE_CHUNK_SIZE) {
+                    checks.add(describeTasks(clusterArn, taskArns.subList(i, Math.min(i + DESCRIBE_CHUNK_SIZE, taskArns.size())))
+                            .thenAccept(result -> check(cluster.getValue(), result))
+                            .exceptionally(e -> {
+                                LOGGER.log(Level.WARNING, "Failed to describe tasks of ECS cluster " + clusterArn, e);
+                                return null;
+                            }));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to poll the tasks of slaves", e);
+        }
+        // do not poll again before this round is done
+        CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])).whenComplete((result, e) -> pollCompleted());
+    }
+
+    private CompletableFuture<DescribeTasksResult> describeTasks(String clusterArn, List<String> taskArns) {
+        try {
+            return ecsService.describeTasksAsync(clusterArn, taskArns);
+        } catch (RuntimeException e) {
+            // e.g. the credentials of the client cannot be looked up
+            final CompletableFuture<DescribeTasksResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private synchronized void pollCompleted() {
+        if (isIdle()) {
+            // watch() starts polling again
+            polling = false;
+        } else {
+            schedulePoll();
+        }
+    }
+
+    private void check(Map<String, CompletableFuture<?>> tasks, DescribeTasksResult result) {
+        for (Task task : result.getTasks()) {
+            if (!"STOPPED".equals(task.getLastStatus())) {
+                continue;
+            }
+            final CompletableFuture<?> online = tasks.get(task.getTaskArn());
+            if (online != null) {
+                final ECSSlave slave = ECSSlaveRegistry.getSlaveByTaskArn(task.getTaskArn());
+                final String msg = String.format("ECS task %s of slave %s stopped before the slave connected: %s",
+                        task.getTaskArn(), slave == null ? "(removed)" : slave.getNodeName(), getStoppedReason(task));
+                LOGGER.log(Level.WARNING, msg);
+                online.completeExceptionally(new IllegalStateException(msg));
+            }
+        }
+    }
+
+    private static String getStoppedReason(Task task) {
+        final Map<String, String> reasons = new HashMap<>();
+        for (Container container : task.getContainers()) {
+            if (StringUtils.isNotBlank(container.getReason())) {
+                reasons.put(container.getName(), container.getReason());
+            }
+        }
+        return reasons.isEmpty() ? task.getStoppedReason() : task.getStoppedReason() + " " + reasons;
+    }
+}
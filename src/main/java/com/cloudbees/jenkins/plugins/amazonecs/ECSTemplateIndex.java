@@ -0,0 +1,94 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable index of the templates of a cloud by label: the label of every template is parsed once, and the
+ * template matching a label is resolved once and remembered, as the node provisioner asks every cloud about
+ * every label of the queue on each of its runs.
+ *
+ * The templates of a cloud only change with its configuration, which creates a new cloud and thus a new index.
+ */
+final class ECSTemplateIndex {
+
+    /**
+     * Bounds the resolved labels, in case of many ad hoc label expressions.
+     */
+    private static final int MAX_RESOLVED_LABELS = 1024;
+
+    @CheckForNull
+    private final List<ECSTaskTemplate> templates;
+    private final List<Set<LabelAtom>> labelSets;
+    private final ConcurrentHashMap<Label, Optional<ECSTaskTemplate>> resolved = new ConcurrentHashMap<>();
+
+    ECSTemplateIndex(@CheckForNull List<ECSTaskTemplate> templates) {
+        this(templates, getLabelSets(templates));
+    }
+
+    /**
+     * @param labelSets the parsed labels of the templates, in the same order
+     */
+    ECSTemplateIndex(@CheckForNull List<ECSTaskTemplate> templates, List<Set<LabelAtom>> labelSets) {
+        this.templates = templates;
+        this.labelSets = Collections.unmodifiableList(labelSets);
+    }
+
+    private static List<Set<LabelAtom>> getLabelSets(@CheckForNull List<ECSTaskTemplate> templates) {
+        if (templates == null) {
+            return Collections.emptyList();
+        }
+        final List<Set<LabelAtom>> labelSets = new ArrayList<>(templates.size());
+        for (ECSTaskTemplate template : templates) {
+            labelSets.add(template.getLabelSet());
+        }
+        return labelSets;
+    }
+
+    /**
+     * @return whether this index was built from the given templates
+     */
+    boolean isIndexOf(@CheckForNull List<ECSTaskTemplate> templates) {
+        return this.templates == templates;
+    }
+
+    /**
+     * @return the first template whose labels match the given label, if any
+     */
+    @CheckForNull
+    ECSTaskTemplate getTemplate(@CheckForNull Label label) {
+        if (label == null || templates == null) {
+            return null;
+        }
+        Optional<ECSTaskTemplate> template = resolved.get(label);
+        if (template == null) {
+            template = Optional.ofNullable(match(label));
+            if (resolved.size() >= MAX_RESOLVED_LABELS) {
+                resolved.clear();
+            }
+            resolved.put(label, template);
+        }
+        return template.orElse(null);
+    }
+
+    /**
+     * @return the first template whose labels match the given label, without remembering it
+     */
+    @CheckForNull
+    ECSTaskTemplate match(Label label) {
+        for (int i = 0; i < labelSets.size(); i++) {
+            if (label.matches(labelSets.get(i))) {
+                return templates.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps idle slaves started for every template with a warm pool, so that builds do not have to wait for an
+ * ECS task to be scheduled, its image to be pulled and its agent to connect: the queue hands them to an
+ * idle, online slave right away.
+ *
+ * Pool slaves are regular one-shot {@link ECSSlave}s. Once a slave accepts a build it stops accepting tasks,
+ * leaves the pool and is terminated after the build by its retention strategy; the pool is then refilled
+ * in the background.
+ */
+@Extension
+public class ECSWarmPool extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(ECSCloud.class.getName());
+
+    /**
+     * Number of pool slaves being provisioned, keyed by cloud and template name.
+     */
+    private static final ConcurrentHashMap<String, AtomicInteger> provisioning = new ConcurrentHashMap<>();
+
+    public ECSWarmPool() {
+        super("ECS warm pool");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(30);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        for (final Cloud c : Jenkins.get().clouds) {
+            if (c instanceof ECSCloud) {
+                final ECSCloud cloud = (ECSCloud) c;
+                if (cloud.getTemplates() != null) {
+                    for (final ECSTaskTemplate template : cloud.getTemplates()) {
+                        if (template.hasWarmPool()) {
+                            maintain(cloud, template);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Refills the pool of the template the given slave was started from, as it is no longer idle.
+     */
+    static void slaveTaken(ECSSlave slave) {
+        final Cloud c = Jenkins.get().clouds.getByName(slave.getCloud().name);
+        if (c instanceof ECSCloud && ((ECSCloud) c).getTemplates() != null) {
+            final ECSCloud cloud = (ECSCloud) c;
+            cloud.getTemplates().stream()
+                    .filter(template -> template.hasWarmPool() && template.getTemplateName().equals(slave.getTemplateName()))
+                    .findFirst()
+                    .ifPresent(template -> Computer.threadPoolForRemoting.submit(() -> maintain(cloud, template)));
+        }
+    }
+
+    private static synchronized void maintain(ECSCloud cloud, ECSTaskTemplate template) {
+        // longest idle first
+        final List<Computer> idleComputers = cloud.getSlaves().stream()
+                .filter(slave -> template.getTemplateName().equals(slave.getTemplateName()))
+                .<Computer>map(ECSSlave::getComputer)
+                .filter(computer -> computer != null && computer.isOnline() && computer.isIdle() && computer.isAcceptingTasks())
+                .sorted(Comparator.comparingLong(Computer::getIdleStartMilliseconds))
+                .collect(Collectors.toList());
+        final AtomicInteger pending = provisioning.computeIfAbsent(cloud.name + '/' + template.getTemplateName(), key -> new AtomicInteger());
+
+        final int missing = template.getWarmPoolMinIdle() - idleComputers.size() - pending.get();
+        if (missing > 0) {
+            LOGGER.log(Level.INFO, "Starting {0} slave(s) for the warm pool of template {1} ({2} idle, {3} starting)",
+                    new Object[] {missing, template.getTemplateName(), idleComputers.size(), pending.get()});
+        }
+        for (int i = 0; i < missing; i++) {
+            pending.incrementAndGet();
+            cloud.startProvisioning(template, null).whenComplete((node, e) -> {
+                pending.decrementAndGet();
+                if (e != null) {
+                    LOGGER.log(Level.WARNING, "Failed to start slave for the warm pool of template " + template.getTemplateName(), e);
+                }
+            });
+        }
+
+        int idle = idleComputers.size();
+        final long now = System.currentTimeMillis();
+        for (final Computer computer : idleComputers) {
+            if (idle <= template.getWarmPoolMinIdle()) {
+                break;
+            }
+            final boolean aboveMaxIdle = template.getWarmPoolMaxIdle() > 0 && idle > template.getWarmPoolMaxIdle();
+            final boolean idleExpired = template.getWarmPoolIdleMinutes() > 0
+                    && now - computer.getIdleStartMilliseconds() > TimeUnit.MINUTES.toMillis(template.getWarmPoolIdleMinutes());
+            if ((aboveMaxIdle || idleExpired) && retire(computer)) {
+                idle--;
+            }
+        }
+    }
+
+    /**
+     * Terminates an idle slave, unless the queue has handed it a build in the meantime.
+     */
+    private static boolean retire(Computer computer) {
+        final boolean[] retired = new boolean[1];
+        Queue.withLock(() -> {
+            if (computer.isIdle() && computer.isAcceptingTasks()) {
+                computer.setAcceptingTasks(false);
+                retired[0] = true;
+            }
+        });
+        final ECSSlave slave = (ECSSlave) computer.getNode();
+        if (retired[0] && slave != null) {
+            LOGGER.log(Level.INFO, "Terminating idle slave {0} of the warm pool of template {1}", new Object[] {slave.getNodeName(), slave.getTemplateName()});
+            try {
+                slave.terminate();
+            } catch (InterruptedException | IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to terminate " + slave.getNodeName(), e);
+            }
+        }
+        return retired[0];
+    }
+}
@@ -0,0 +1,173 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.ContainerInstanceStatus;
+import com.amazonaws.services.ecs.model.PlacementConstraintType;
+import com.amazonaws.services.ecs.model.Resource;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ECSClusterCapacityTest {
+
+    private static final String CLUSTER_ARN = "arn:aws:ecs:us-east-1:123456789012:cluster/test";
+
+    private ECSClusterCapacity capacity;
+
+    @Before
+    public void setUp() {
+        capacity = new ECSClusterCapacity(new ECSService(null, "us-east-1", null), CLUSTER_ARN);
+    }
+
+    @Test
+    public void reservesOnAnInstanceWithEnoughResources() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 512, 1024), newInstance("b", 4096, 1024));
+        assertReservedOn("b", reserve(newTemplate(1024, 512), instances));
+    }
+
+    @Test
+    public void reservationsCountAgainstTheRemainingResources() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 2048, 1024), newInstance("b", 2048, 1024));
+        final ECSTaskTemplate template = newTemplate(1024, 512);
+        assertReservedOn("a", reserve(template, instances));
+        assertReservedOn("a", reserve(template, instances));
+        assertReservedOn("b", reserve(template, instances));
+        assertReservedOn("b", reserve(template, instances));
+        assertNull(reserve(template, instances));
+        assertEquals(4096, capacity.getReservedResource("MEMORY"));
+        assertEquals(2048, capacity.getReservedResource("CPU"));
+    }
+
+    @Test
+    public void releasedReservationsAreAvailableAgain() {
+        final List<ContainerInstance> instances = Collections.singletonList(newInstance("a", 1024, 1024));
+        final ECSTaskTemplate template = newTemplate(1024, 512);
+        final ECSClusterCapacity.Reservation reservation = reserve(template, instances);
+        assertNotNull(reservation);
+        assertNull(reserve(template, instances));
+        reservation.release();
+        assertReservedOn("a", reserve(template, instances));
+    }
+
+    @Test
+    public void cpuIsReservedToo() {
+        final List<ContainerInstance> instances = Collections.singletonList(newInstance("a", 8192, 1024));
+        final ECSTaskTemplate template = newTemplate(1024, 768);
+        assertNotNull(reserve(template, instances));
+        assertNull(reserve(template, instances));
+    }
+
+    @Test
+    public void inactiveInstancesAreSkipped() {
+        final List<ContainerInstance> instances = Arrays.asList(
+                newInstance("a", 4096, 1024).withStatus(ContainerInstanceStatus.DRAINING.toString()),
+                newInstance("b", 4096, 1024));
+        assertReservedOn("b", reserve(newTemplate(1024, 512), instances));
+    }
+
+    @Test
+    public void tasksArePlacedOnTheReservedInstance() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 512, 1024), newInstance("b", 4096, 1024));
+        final RunTaskRequest runTaskRequest = new RunTaskRequest();
+        reserve(newTemplate(1024, 512), instances).applyPlacement(runTaskRequest);
+        assertEquals(1, runTaskRequest.getPlacementConstraints().size());
+        assertEquals(PlacementConstraintType.MemberOf.toString(), runTaskRequest.getPlacementConstraints().get(0).getType());
+        assertEquals("ec2InstanceId == 'i-b'", runTaskRequest.getPlacementConstraints().get(0).getExpression());
+    }
+
+    @Test
+    public void evacuatedInstancesAreUsedLast() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 1024, 1024), newInstance("b", 1024, 1024));
+        capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a"));
+        final ECSTaskTemplate template = newTemplate(1024, 512);
+        assertReservedOn("b", reserve(template, instances));
+        assertTrue(capacity.getEvacuatedInstances().containsKey(arn("a")));
+
+        // no other instance is left: the evacuated instance takes the slave and is not evacuated anymore
+        assertReservedOn("a", reserve(template, instances));
+        assertTrue(capacity.getEvacuatedInstances().isEmpty());
+    }
+
+    @Test
+    public void planDoesNotEvacuateInstancesNeededSinceTheLastPlan() {
+        final List<ContainerInstance> instances = Collections.singletonList(newInstance("a", 1024, 1024));
+        capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a"));
+        assertReservedOn("a", reserve(newTemplate(1024, 512), instances));
+
+        // a plan made from a snapshot taken before the reservation
+        assertTrue(capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a")).isEmpty());
+        // later plans apply
+        assertEquals(Collections.singletonMap(arn("a"), "i-a"), capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a")));
+    }
+
+    @Test
+    public void instancesNeededByLaunchesAreNotDrained() {
+        final List<ContainerInstance> instances = Collections.singletonList(newInstance("a", 1024, 1024));
+        capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a"));
+        final ECSClusterCapacity.Reservation reservation = reserve(newTemplate(1024, 512), instances);
+        assertReservedOn("a", reservation);
+        assertFalse(capacity.startDraining(arn("a")));
+
+        // evacuated again by later plans, but the slave has not started yet
+        capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a"));
+        capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a"));
+        assertFalse(capacity.startDraining(arn("a")));
+        reservation.release();
+        assertTrue(capacity.startDraining(arn("a")));
+    }
+
+    @Test
+    public void drainingInstancesTakeNoSlaves() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 1024, 1024), newInstance("b", 1024, 1024));
+        capacity.setEvacuatedInstances(Collections.singletonMap(arn("a"), "i-a"));
+        assertTrue(capacity.startDraining(arn("a")));
+        final ECSTaskTemplate template = newTemplate(1024, 512);
+        assertReservedOn("b", reserve(template, instances));
+        assertNull(reserve(template, instances));
+
+        capacity.drainingFailed(arn("a"));
+        assertReservedOn("a", reserve(template, instances));
+    }
+
+    private ECSClusterCapacity.Reservation reserve(ECSTaskTemplate template, List<ContainerInstance> instances) {
+        synchronized (capacity) {
+            return capacity.reserve(template, instances);
+        }
+    }
+
+    private static void assertReservedOn(String instance, ECSClusterCapacity.Reservation reservation) {
+        assertNotNull(reservation);
+        assertEquals(arn(instance), reservation.getContainerInstanceArn());
+    }
+
+    static ContainerInstance newInstance(String name, int memory, int cpu) {
+        return new ContainerInstance()
+                .withContainerInstanceArn(arn(name))
+                .withEc2InstanceId("i-" + name)
+                .withStatus(ContainerInstanceStatus.ACTIVE.toString())
+                .withRegisteredResources(newResource("MEMORY", 8192), newResource("CPU", 4096))
+                .withRemainingResources(newResource("MEMORY", memory), newResource("CPU", cpu));
+    }
+
+    private static Resource newResource(String name, int value) {
+        return new Resource().withName(name).withType("INTEGER").withIntegerValue(value);
+    }
+
+    static String arn(String name) {
+        return CLUSTER_ARN.replace(":cluster/", ":container-instance/") + '/' + name;
+    }
+
+    static ECSTaskTemplate newTemplate(int memory, int cpu) {
+        return new ECSTaskTemplate("test", "test", "jenkins/jnlp-slave", null, memory, 0, cpu, false, null, null, null, null);
+    }
+}
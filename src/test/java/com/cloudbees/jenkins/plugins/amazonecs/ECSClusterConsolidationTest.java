@@ -0,0 +1,86 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.services.ecs.model.ContainerInstance;
+import com.amazonaws.services.ecs.model.PlacementConstraint;
+import com.amazonaws.services.ecs.model.Resource;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ECSClusterConsolidationTest {
+
+    @Test
+    public void evacuatesTheEmptiestBusyInstances() {
+        final List<ContainerInstance> instances = Arrays.asList(
+                newInstance("c", 100), newInstance("a", 800), newInstance("idle", 0), newInstance("b", 200));
+        // 1100 cpu units fit on the two fullest instances at 80%: 2 * 1024 * 0.8 = 1638
+        assertEquals(Collections.singletonMap(ECSClusterCapacityTest.arn("c"), "i-c"), ECSClusterConsolidation.plan(instances, 0, 0));
+    }
+
+    @Test
+    public void idleInstancesAreLeftToTheScaleIn() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 100), newInstance("idle", 0));
+        assertTrue(ECSClusterConsolidation.plan(instances, 0, 0).isEmpty());
+    }
+
+    @Test
+    public void reservationsAreAbsorbedToo() {
+        final List<ContainerInstance> instances = Arrays.asList(newInstance("a", 800), newInstance("b", 200), newInstance("c", 100));
+        // 1700 cpu units need all three instances: 2 * 1024 * 0.8 = 1638
+        assertTrue(ECSClusterConsolidation.plan(instances, 600, 0).isEmpty());
+    }
+
+    @Test
+    public void evacuationsAreBounded() {
+        final List<ContainerInstance> instances = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            instances.add(newInstance(String.valueOf(i), 1));
+        }
+        final Map<String, String> evacuated = ECSClusterConsolidation.plan(instances, 0, 0);
+        assertEquals(50, evacuated.size());
+    }
+
+    @Test
+    public void placementExcludesEvacuatedInstances() {
+        final RunTaskRequest request = new RunTaskRequest();
+        ECSClusterConsolidation.applyPlacement(request, Arrays.asList("i-a", "i-b"));
+        assertEquals("binpack", request.getPlacementStrategy().get(0).getType());
+        final PlacementConstraint constraint = request.getPlacementConstraints().get(0);
+        assertEquals("memberOf", constraint.getType());
+        assertEquals("ec2InstanceId !in ['i-a', 'i-b']", constraint.getExpression());
+    }
+
+    @Test
+    public void placementWithoutEvacuatedInstances() {
+        final RunTaskRequest request = new RunTaskRequest();
+        ECSClusterConsolidation.applyPlacement(request, Collections.emptyList());
+        assertEquals(1, request.getPlacementStrategy().size());
+        assertTrue(request.getPlacementConstraints().isEmpty());
+    }
+
+    /**
+     * An instance of 1024 cpu units and 8192mb of memory running a task if it has used cpu.
+     */
+    private static ContainerInstance newInstance(String name, int usedCpu) {
+        return new ContainerInstance()
+                .withContainerInstanceArn(ECSClusterCapacityTest.arn(name))
+                .withEc2InstanceId("i-" + name)
+                .withStatus("ACTIVE")
+                .withRunningTasksCount(usedCpu > 0 ? 1 : 0)
+                .withPendingTasksCount(0)
+                .withRegisteredResources(newResource("MEMORY", 8192), newResource("CPU", 1024))
+                .withRemainingResources(newResource("MEMORY", 8192 - usedCpu), newResource("CPU", 1024 - usedCpu));
+    }
+
+    private static Resource newResource(String name, int value) {
+        return new Resource().withName(name).withType("INTEGER").withIntegerValue(value);
+    }
+}
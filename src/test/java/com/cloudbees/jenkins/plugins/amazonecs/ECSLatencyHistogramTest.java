@@ -0,0 +1,82 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ECSLatencyHistogramTest {
+
+    @Test
+    public void bucketsAreExactForSmallValues() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, ECSLatencyHistogram.getHighestValue(ECSLatencyHistogram.getBucket(value)));
+        }
+    }
+
+    @Test
+    public void bucketsHaveBoundedRelativeError() {
+        for (long value = 16; value <= Integer.MAX_VALUE; value = value * 3 / 2 + 1) {
+            final long highest = ECSLatencyHistogram.getHighestValue(ECSLatencyHistogram.getBucket(value));
+            assertTrue("bucket of " + value + " ends below it at " + highest, highest >= value);
+            assertTrue("bucket of " + value + " ends too far above it at " + highest, highest - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void bucketsAreOrdered() {
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            final int bucket = ECSLatencyHistogram.getBucket(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void emptyStatistics() {
+        final Map<String, Long> statistics = new ECSLatencyHistogram().getStatistics();
+        assertEquals(0L, (long) statistics.get("count"));
+        assertEquals(0L, (long) statistics.get("mean"));
+        assertEquals(0L, (long) statistics.get("p99"));
+        assertEquals(0L, (long) statistics.get("max"));
+    }
+
+    @Test
+    public void percentiles() {
+        final ECSLatencyHistogram histogram = new ECSLatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        final Map<String, Long> statistics = histogram.getStatistics();
+        assertEquals(1000L, (long) statistics.get("count"));
+        assertEquals(1000L, (long) statistics.get("totalCount"));
+        assertEquals(500L, (long) statistics.get("mean"));
+        assertEquals(1000L, (long) statistics.get("max"));
+        assertWithinError(500, statistics.get("p50"));
+        assertWithinError(950, statistics.get("p95"));
+        assertWithinError(990, statistics.get("p99"));
+    }
+
+    @Test
+    public void percentilesDoNotExceedMax() {
+        final ECSLatencyHistogram histogram = new ECSLatencyHistogram();
+        histogram.record(1000);
+        assertEquals(1000L, (long) histogram.getStatistics().get("p99"));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        final ECSLatencyHistogram histogram = new ECSLatencyHistogram();
+        histogram.record(-5);
+        final Map<String, Long> statistics = histogram.getStatistics();
+        assertEquals(1L, (long) statistics.get("count"));
+        assertEquals(0L, (long) statistics.get("max"));
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual - expected <= expected / 16);
+    }
+}
@@ -0,0 +1,121 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ECSRateLimiterTest {
+
+    /**
+     * A bucket refilling so slowly that it does not refill while a test runs.
+     */
+    private static ECSRateLimiter.Bucket newBucket(String operation, int burst) {
+        System.setProperty(ECSRateLimiter.class.getName() + '.' + operation + ".ratePerSecond", "0.001");
+        System.setProperty(ECSRateLimiter.class.getName() + '.' + operation + ".burst", String.valueOf(burst));
+        return new ECSRateLimiter.Bucket(operation);
+    }
+
+    @Test
+    public void burstIsAvailableRightAway() {
+        final ECSRateLimiter.Bucket bucket = newBucket("Burst", 10);
+        final long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryAcquire(false, start, false));
+        }
+        final long waitNanos = bucket.tryAcquire(false, start, false);
+        assertTrue("waits " + waitNanos, waitNanos > TimeUnit.SECONDS.toNanos(900) && waitNanos <= TimeUnit.SECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void backgroundCallsLeaveTheReserve() {
+        final ECSRateLimiter.Bucket bucket = newBucket("Background", 10);
+        final long start = System.nanoTime();
+        int acquired = 0;
+        while (bucket.tryAcquire(true, start, false) == 0) {
+            acquired++;
+        }
+        // half of the bucket is reserved to provisioning
+        assertEquals(5, acquired);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(false, start, false));
+        }
+        assertTrue(bucket.tryAcquire(false, start, false) > 0);
+    }
+
+    @Test
+    public void synchronousCallsWaitForTheirToken() throws Exception {
+        final ECSRateLimiter.Bucket bucket = newBucket("Sync", 10);
+        for (int i = 0; i < 10; i++) {
+            bucket.acquire(false);
+        }
+        final Thread caller = new Thread(() -> {
+            try {
+                bucket.acquire(false);
+            } catch (InterruptedException e) {
+                // expected
+            }
+        });
+        caller.start();
+        awaitWaiting(caller);
+        // the waiting call did not take a token in advance
+        assertTrue(bucket.tryAcquire(false, System.nanoTime(), false) > 0);
+        caller.interrupt();
+        caller.join();
+    }
+
+    @Test
+    public void backgroundSyncBurstDoesNotDelayForegroundCalls() throws Exception {
+        System.setProperty(ECSRateLimiter.class.getName() + ".DescribeTasks.ratePerSecond", "0.001");
+        System.setProperty(ECSRateLimiter.class.getName() + ".DescribeTasks.burst", "10");
+        final ECSRateLimiter limiter = new ECSRateLimiter("test");
+        final HandlerBeforeAttemptContext context = HandlerBeforeAttemptContext.builder()
+                .withRequest(new DefaultRequest<>(new DescribeTasksRequest(), "AmazonECS"))
+                .build();
+        final AtomicInteger sent = new AtomicInteger();
+        final Thread scaleIn = new Thread(() -> ECSRateLimiter.inBackground(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    limiter.beforeAttempt(context);
+                    sent.incrementAndGet();
+                }
+            } catch (AbortedException e) {
+                // expected
+            }
+        }));
+        scaleIn.start();
+        awaitWaiting(scaleIn);
+        // the burst stopped at the reserve of provisioning
+        assertEquals(5, sent.get());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire(new DescribeTasksRequest()).isDone());
+        }
+        scaleIn.interrupt();
+        scaleIn.join();
+        assertEquals(5, sent.get());
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(thread.isAlive());
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void statisticsCountWaitedCalls() {
+        final ECSRateLimiter.Bucket bucket = newBucket("Statistics", 10);
+        assertEquals(0, bucket.tryAcquire(false, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50), true));
+        assertEquals(0, bucket.tryAcquire(false, System.nanoTime(), false));
+        assertTrue(bucket.toString(), bucket.toString().startsWith("Statistics: 2 calls, 1 waited"));
+        assertTrue(bucket.resetStatistics() != null);
+        assertEquals(null, bucket.resetStatistics());
+    }
+}
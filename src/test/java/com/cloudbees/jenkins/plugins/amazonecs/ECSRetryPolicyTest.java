@@ -0,0 +1,66 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.RunTaskRequest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ECSRetryPolicyTest {
+
+    @Test
+    public void operation() {
+        assertEquals("DescribeTasks", ECSRetryPolicy.getOperation(new DescribeTasksRequest()));
+        assertEquals("unknown", ECSRetryPolicy.getOperation(null));
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        assertTrue(new ECSRetryPolicy().shouldRetry(new RunTaskRequest(), newException(500, "InternalFailure"), 0));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        assertFalse(new ECSRetryPolicy().shouldRetry(new RunTaskRequest(), newException(400, "InvalidParameterException"), 0));
+    }
+
+    @Test
+    public void retryBudgetIsPerOperation() {
+        final ECSRetryPolicy policy = new ECSRetryPolicy();
+        int retries = 0;
+        while (retries < 1000 && policy.shouldRetry(new RunTaskRequest(), newException(500, "InternalFailure"), 0)) {
+            retries++;
+        }
+        // the budget of 120 retries per minute refills while the loop runs
+        assertTrue("retried " + retries + " times", retries >= 120 && retries < 130);
+        assertTrue(policy.shouldRetry(new DescribeTasksRequest(), newException(500, "InternalFailure"), 0));
+    }
+
+    @Test
+    public void delaysAreBounded() {
+        final ECSRetryPolicy policy = new ECSRetryPolicy();
+        for (int retriesAttempted = 0; retriesAttempted < 20; retriesAttempted++) {
+            final long delay = policy.delayBeforeNextRetry(new RunTaskRequest(), newException(500, "InternalFailure"), retriesAttempted);
+            assertTrue("delay " + delay, delay >= 100 && delay <= 20000);
+        }
+    }
+
+    @Test
+    public void throttlingStartsWithLongerDelays() {
+        final ECSRetryPolicy policy = new ECSRetryPolicy();
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.delayBeforeNextRetry(new RunTaskRequest(), newException(400, "ThrottlingException"), 0);
+            assertTrue("delay " + delay, delay >= 500 && delay <= 1500);
+        }
+    }
+
+    private static AmazonServiceException newException(int statusCode, String errorCode) {
+        final AmazonServiceException exception = new AmazonServiceException(errorCode);
+        exception.setStatusCode(statusCode);
+        exception.setErrorCode(errorCode);
+        return exception;
+    }
+}
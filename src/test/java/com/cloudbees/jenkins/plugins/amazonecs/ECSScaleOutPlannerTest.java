@@ -0,0 +1,67 @@
+package com.cloudbees.jenkins.plugins.amazonecs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ECSScaleOutPlannerTest {
+
+    private ECSScaleOutPlanner planner;
+
+    @Before
+    public void setUp() {
+        final ECSService ecsService = new ECSService(null, "us-east-1", null);
+        planner = new ECSScaleOutPlanner(ecsService, new ECSClusterCapacity(ecsService, "arn:aws:ecs:us-east-1:123456789012:cluster/test"), "test");
+    }
+
+    @Test
+    public void noDemand() {
+        assertEquals(0, planner.pack(new ArrayList<>(), new ArrayList<>(), 1024, 4096));
+    }
+
+    @Test
+    public void packsDemandsOnAsFewInstancesAsPossible() {
+        // first fit decreasing: 3072 + 1024 | 2048 + 2048 | 1024
+        final List<ECSScaleOutPlanner.Demand> demands = new ArrayList<>(Arrays.asList(
+                new ECSScaleOutPlanner.Demand(256, 1024), new ECSScaleOutPlanner.Demand(256, 2048),
+                new ECSScaleOutPlanner.Demand(256, 3072), new ECSScaleOutPlanner.Demand(256, 2048),
+                new ECSScaleOutPlanner.Demand(256, 1024)));
+        assertEquals(3, planner.pack(demands, new ArrayList<>(), 1024, 4096));
+    }
+
+    @Test
+    public void cpuLimitsThePacking() {
+        final List<ECSScaleOutPlanner.Demand> demands = new ArrayList<>(Collections.nCopies(5, new ECSScaleOutPlanner.Demand(512, 512)));
+        assertEquals(3, planner.pack(demands, new ArrayList<>(), 1024, 4096));
+    }
+
+    @Test
+    public void demandsLargerThanAnInstanceAreLeftOut() {
+        final List<ECSScaleOutPlanner.Demand> demands = new ArrayList<>(Arrays.asList(
+                new ECSScaleOutPlanner.Demand(256, 8192), new ECSScaleOutPlanner.Demand(2048, 512),
+                new ECSScaleOutPlanner.Demand(256, 512)));
+        assertEquals(1, planner.pack(demands, new ArrayList<>(), 1024, 4096));
+    }
+
+    @Test
+    public void demandsArePackedOnRegisteredInstancesFirst() {
+        // the instance requested for the demands registered before their launches checked the cluster again
+        final List<ECSScaleOutPlanner.Demand> demands = new ArrayList<>(Collections.nCopies(2, new ECSScaleOutPlanner.Demand(256, 2048)));
+        final List<int[]> registered = new ArrayList<>(Collections.singletonList(new int[] {1024, 4096}));
+        assertEquals(0, planner.pack(demands, registered, 1024, 4096));
+        assertEquals(1024, registered.get(0)[0]);
+    }
+
+    @Test
+    public void onlyTheRemainingDemandsNeedNewInstances() {
+        final List<ECSScaleOutPlanner.Demand> demands = new ArrayList<>(Collections.nCopies(3, new ECSScaleOutPlanner.Demand(256, 2048)));
+        final List<int[]> registered = Arrays.asList(new int[] {1024, 1024}, new int[] {512, 2048});
+        assertEquals(1, planner.pack(demands, registered, 1024, 4096));
+    }
+}